@@ -0,0 +1,471 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * 
+ * A thread-safe queue backed by a {@linkplain QueueStack} that supports
+ * asynchronous consumption. A consumer that polls an empty queue does not
+ * block a thread -- instead, it is handed a {@linkplain CompletableFuture}
+ * that is completed directly by the <code>offer</code> that supplies its
+ * element. Waiting consumers are served in the order in which they polled.
+ * As an idle consumer is only a pending future, thousands of idle consumers
+ * cost no threads.
+ * 
+ * The queue is guarded by a {@linkplain ReentrantLock} rather than a monitor
+ * and futures are completed outside of the lock. Blocking consumers
+ * ({@linkplain #take()}) park in {@linkplain CompletableFuture#get()}, which
+ * uses {@linkplain LockSupport} parking. Neither pins the carrier of a virtual
+ * thread.
+ * 
+ * <b>N.B.</b> This class is thread-safe, and is unbounded.
+ * 
+ * @author John Burwell
+ * 
+ * @param <E>
+ *            The type of element contained in this queue
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class AsyncQueueStack<E> {
+
+	private final Lock myLock;
+
+	private final QueueStack<E> myElements;
+
+	// Waiters are offered and polled in fine interleaving (a consume loop
+	// re-registers after every element), which is the worst case for the
+	// flipping of a QueueStack
+	private final Deque<CompletableFuture<E>> myWaiters;
+
+	/**
+	 * The number of waiters cancelled (or otherwise completed exceptionally)
+	 * since the waiters were last purged
+	 */
+	private final AtomicInteger myAbandonedWaiterCount;
+
+	/**
+	 * Counts a waiter abandoned by its consumer
+	 */
+	private final BiConsumer<Object, Throwable> myAbandonmentListener;
+
+	/**
+	 * 
+	 * Default constructor -- initializes an empty queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public AsyncQueueStack() {
+
+		super();
+
+		this.myLock = new ReentrantLock();
+		this.myElements = new QueueStack<E>();
+		this.myWaiters = new ArrayDeque<CompletableFuture<E>>();
+		this.myAbandonedWaiterCount = new AtomicInteger();
+		this.myAbandonmentListener = new BiConsumer<Object, Throwable>() {
+
+			public void accept(Object aResult, Throwable aThrowable) {
+
+				if (aThrowable != null) {
+
+					AsyncQueueStack.this.myAbandonedWaiterCount
+							.incrementAndGet();
+
+				}
+
+			}
+
+		};
+
+	}
+
+	/**
+	 * 
+	 * Inserts the passed element, <code>anObject</code>, into this queue. If a
+	 * consumer is waiting, its future is completed with the element instead.
+	 * 
+	 * @param anObject
+	 *            The element to insert
+	 * 
+	 * @return <code>true</code>
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean offer(E anObject) {
+
+		if (anObject == null) {
+
+			throw new IllegalArgumentException(
+					"nulls can not be inserted into a Queue.");
+
+		}
+
+		while (true) {
+
+			CompletableFuture<E> aWaiter;
+
+			this.myLock.lock();
+			try {
+
+				aWaiter = this.myWaiters.poll();
+
+				if (aWaiter == null) {
+
+					this.myElements.offer(anObject);
+					return true;
+
+				}
+
+			} finally {
+
+				this.myLock.unlock();
+
+			}
+
+			// Completing the future runs its dependent actions, so it must be
+			// done outside of the lock. Completion only fails when the
+			// consumer cancelled, in which case the next waiter is tried.
+			if (aWaiter.complete(anObject) == true) {
+
+				return true;
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Retrieves and removes the head of this queue without waiting.
+	 * 
+	 * @return The head of this queue, or <code>null</code> if this queue is
+	 *         empty
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public E poll() {
+
+		this.myLock.lock();
+		try {
+
+			return this.myElements.poll();
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Retrieves and removes the head of this queue, or registers interest in
+	 * the next element offered if this queue is empty. A consumer that is no
+	 * longer interested should cancel the returned future. Cancelled futures
+	 * are discarded by the next <code>offer</code> or, once they make up half
+	 * of the waiters, by the next registration.
+	 * 
+	 * @return A future completed with the head of this queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public CompletableFuture<E> pollAsync() {
+
+		this.myLock.lock();
+		try {
+
+			E anElement = this.myElements.poll();
+
+			if (anElement != null) {
+
+				return CompletableFuture.completedFuture(anElement);
+
+			}
+
+			this.purgeAbandonedWaiters();
+
+			CompletableFuture<E> aWaiter = new CompletableFuture<E>();
+			aWaiter.whenComplete(this.myAbandonmentListener);
+			this.myWaiters.offer(aWaiter);
+
+			return aWaiter;
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Retrieves and removes the head of this queue, parking the calling
+	 * thread until an element is available.
+	 * 
+	 * @return The head of this queue
+	 * 
+	 * @throws InterruptedException
+	 *             If the calling thread is interrupted while waiting
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public E take() throws InterruptedException {
+
+		CompletableFuture<E> aFuture = this.pollAsync();
+
+		try {
+
+			return aFuture.get();
+
+		} catch (InterruptedException e) {
+
+			if (aFuture.cancel(false) == true) {
+
+				throw e;
+
+			}
+
+			// An element was handed to this consumer as it was interrupted --
+			// it is returned rather than lost and the interrupt is preserved
+			Thread.currentThread().interrupt();
+
+			return aFuture.join();
+
+		} catch (ExecutionException e) {
+
+			throw new IllegalStateException(e.getCause());
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Continuously consumes the elements of this queue, passing each to the
+	 * passed consumer, <code>aConsumer</code>, on the passed executor,
+	 * <code>anExecutor</code>. Between elements, the loop is only a pending
+	 * future and occupies no thread. The loop stops when the returned future
+	 * is cancelled or completed, or with the exception thrown by the consumer.
+	 * An element handed to the loop as it is stopped is still passed to the
+	 * consumer.
+	 * 
+	 * @param aConsumer
+	 *            The consumer of the elements of this queue
+	 * @param anExecutor
+	 *            The executor on which the consumer is invoked
+	 * 
+	 * @return A future used to stop the loop
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public CompletableFuture<Void> consume(final Consumer<? super E> aConsumer,
+			final Executor anExecutor) {
+
+		if (aConsumer == null || anExecutor == null) {
+
+			throw new NullPointerException();
+
+		}
+
+		final CompletableFuture<Void> aHandle = new CompletableFuture<Void>();
+		final AtomicReference<CompletableFuture<E>> aPending = new AtomicReference<CompletableFuture<E>>();
+
+		aHandle.whenComplete(new BiConsumer<Void, Throwable>() {
+
+			public void accept(Void aResult, Throwable aThrowable) {
+
+				CompletableFuture<E> aFuture = aPending.get();
+
+				if (aFuture != null) {
+
+					aFuture.cancel(false);
+
+				}
+
+			}
+
+		});
+
+		this.consumeNext(aConsumer, anExecutor, aHandle, aPending);
+
+		return aHandle;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements contained in this queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size() {
+
+		this.myLock.lock();
+		try {
+
+			return this.myElements.size();
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if this queue contains no elements
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isEmpty() {
+
+		return this.size() == 0;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of registered waiters, including abandoned waiters
+	 *         not yet discarded
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	int getWaiterCount() {
+
+		this.myLock.lock();
+		try {
+
+			return this.myWaiters.size();
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Removes the abandoned waiters once they make up half of the waiters, so
+	 * that consumers that cancel without an intervening <code>offer</code> do
+	 * not accumulate. The count is approximate -- a waiter discarded by
+	 * <code>offer</code> is also counted -- but is reset by each purge.
+	 * 
+	 * <b>N.B.</b> Must be called while holding the lock.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void purgeAbandonedWaiters() {
+
+		if (this.myAbandonedWaiterCount.get() <= this.myWaiters.size() >> 1) {
+
+			return;
+
+		}
+
+		this.myAbandonedWaiterCount.set(0);
+
+		for (Iterator<CompletableFuture<E>> anIterator = this.myWaiters
+				.iterator(); anIterator.hasNext() == true;) {
+
+			if (anIterator.next().isDone() == true) {
+
+				anIterator.remove();
+
+			}
+
+		}
+
+	}
+
+	private void consumeNext(final Consumer<? super E> aConsumer,
+			final Executor anExecutor, final CompletableFuture<Void> aHandle,
+			final AtomicReference<CompletableFuture<E>> aPending) {
+
+		CompletableFuture<E> aFuture = this.pollAsync();
+		aPending.set(aFuture);
+
+		if (aHandle.isDone() == true) {
+
+			aFuture.cancel(false);
+
+		}
+
+		aFuture.thenAcceptAsync(new Consumer<E>() {
+
+			public void accept(E anElement) {
+
+				try {
+
+					aConsumer.accept(anElement);
+
+				} catch (Throwable e) {
+
+					aHandle.completeExceptionally(e);
+
+				}
+
+				if (aHandle.isDone() == false) {
+
+					AsyncQueueStack.this.consumeNext(aConsumer, anExecutor,
+							aHandle, aPending);
+
+				}
+
+			}
+
+		}, anExecutor);
+
+	}
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * 
+ * A queue that hands its elements to the consumer in batches. A batch is
+ * emitted once the maximum batch size has accumulated or the maximum delay
+ * has elapsed since the oldest pending element was offered, whichever comes
+ * first. Elements are buffered in a {@linkplain QueueStack} and their arrival
+ * times in a {@linkplain CompressedLongQueueStack}, which encodes monotonic
+ * timestamps in a byte or two.
+ * 
+ * Each batch is drained from the {@linkplain QueueStack} directly into a
+ * single array that is reused for every batch, and is presented as a
+ * {@linkplain List} view of that array, so assembling and emitting a batch
+ * does not allocate. The view is only valid for the duration of the callback
+ * to which it is passed. The underlying queues still allocate as they grow,
+ * and a {@linkplain QueueStack} allocates a new stack when it flips.
+ * 
+ * <b>N.B.</b> This class is not thread-safe, and is unbounded.
+ * 
+ * @author John Burwell
+ * 
+ * @param <E>
+ *            The type of element contained in this queue
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class BatchingQueueStack<E> {
+
+	private final QueueStack<E> myElements;
+
+	private final CompressedLongQueueStack myArrivalTimes;
+
+	private final int myMaxBatchSize;
+
+	private final long myMaxDelay;
+
+	private final Ticker myTicker;
+
+	private final Batch myBatch;
+
+	private final Consumer<E> myBatchAppender;
+
+	/**
+	 * 
+	 * Initializes an empty queue using the system ticker.
+	 * 
+	 * @param aMaxBatchSize
+	 *            The number of elements that triggers a batch
+	 * @param aMaxDelay
+	 *            The time since the oldest pending element was offered that
+	 *            triggers a batch
+	 * @param aUnit
+	 *            The unit of <code>aMaxDelay</code>
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public BatchingQueueStack(int aMaxBatchSize, long aMaxDelay, TimeUnit aUnit) {
+
+		this(aMaxBatchSize, aMaxDelay, aUnit, Ticker.SYSTEM);
+
+	}
+
+	/**
+	 * 
+	 * Initializes an empty queue.
+	 * 
+	 * @param aMaxBatchSize
+	 *            The number of elements that triggers a batch
+	 * @param aMaxDelay
+	 *            The time since the oldest pending element was offered that
+	 *            triggers a batch
+	 * @param aUnit
+	 *            The unit of <code>aMaxDelay</code>
+	 * @param aTicker
+	 *            The source of the arrival times of elements
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public BatchingQueueStack(int aMaxBatchSize, long aMaxDelay,
+			TimeUnit aUnit, Ticker aTicker) {
+
+		super();
+
+		if (aMaxBatchSize < 1) {
+
+			throw new IllegalArgumentException(
+					"The maximum batch size must be greater than zero.");
+
+		}
+
+		if (aMaxDelay < 0) {
+
+			throw new IllegalArgumentException(
+					"The maximum delay must not be negative.");
+
+		}
+
+		if (aUnit == null || aTicker == null) {
+
+			throw new NullPointerException();
+
+		}
+
+		this.myElements = new QueueStack<E>();
+		this.myArrivalTimes = new CompressedLongQueueStack();
+		this.myMaxBatchSize = aMaxBatchSize;
+		this.myMaxDelay = aUnit.toNanos(aMaxDelay);
+		this.myTicker = aTicker;
+		this.myBatch = new Batch(aMaxBatchSize);
+		this.myBatchAppender = new Consumer<E>() {
+
+			public void accept(E anElement) {
+
+				Batch aBatch = BatchingQueueStack.this.myBatch;
+				aBatch.myElements[aBatch.mySize++] = anElement;
+
+			}
+
+		};
+
+	}
+
+	/**
+	 * 
+	 * Inserts the passed element, <code>anObject</code>, into the pending
+	 * batch.
+	 * 
+	 * @param anObject
+	 *            The element to insert
+	 * 
+	 * @return <code>true</code>
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean offer(E anObject) {
+
+		this.myElements.offer(anObject);
+		this.myArrivalTimes.offerLong(this.myTicker.read());
+
+		return true;
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if either the size or time trigger has fired
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isReady() {
+
+		return this.getDelay(TimeUnit.NANOSECONDS) == 0;
+
+	}
+
+	/**
+	 * 
+	 * @param aUnit
+	 *            The unit of the result
+	 * 
+	 * @return The time remaining until the time trigger fires --
+	 *         <code>0</code> if a batch is ready and {@link Long#MAX_VALUE} if
+	 *         no element is pending
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getDelay(TimeUnit aUnit) {
+
+		if (this.myElements.isEmpty() == true) {
+
+			return Long.MAX_VALUE;
+
+		}
+
+		if (this.myElements.size() >= this.myMaxBatchSize) {
+
+			return 0;
+
+		}
+
+		long anElapsed = this.myTicker.read() - this.myArrivalTimes.peekLong();
+
+		return aUnit.convert(Math.max(0, this.myMaxDelay - anElapsed),
+				TimeUnit.NANOSECONDS);
+
+	}
+
+	/**
+	 * 
+	 * Passes the next batch to the passed handler, <code>aHandler</code>, if
+	 * either trigger has fired.
+	 * 
+	 * @param aHandler
+	 *            The consumer of the batch. The batch passed is only valid
+	 *            until the handler returns.
+	 * 
+	 * @return <code>true</code> if a batch was emitted
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean poll(Consumer<? super List<E>> aHandler) {
+
+		if (this.isReady() == false) {
+
+			return false;
+
+		}
+
+		this.emit(aHandler);
+
+		return true;
+
+	}
+
+	/**
+	 * 
+	 * Passes the pending elements to the passed handler,
+	 * <code>aHandler</code>, in batches of at most the maximum batch size
+	 * regardless of the time trigger.
+	 * 
+	 * @param aHandler
+	 *            The consumer of the batches. Each batch passed is only valid
+	 *            until the handler returns.
+	 * 
+	 * @return The number of batches emitted
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int flush(Consumer<? super List<E>> aHandler) {
+
+		int aCount = 0;
+
+		while (this.myElements.isEmpty() == false) {
+
+			this.emit(aHandler);
+			aCount++;
+
+		}
+
+		return aCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of pending elements
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size() {
+
+		return this.myElements.size();
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if no element is pending
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isEmpty() {
+
+		return this.myElements.isEmpty();
+
+	}
+
+	private void emit(Consumer<? super List<E>> aHandler) {
+
+		Object[] theElements = this.myBatch.myElements;
+		int aSize = this.myElements.drain(this.myBatchAppender,
+				theElements.length);
+
+		for (int i = 0; i < aSize; i++) {
+
+			this.myArrivalTimes.pollLong();
+
+		}
+
+		try {
+
+			aHandler.accept(this.myBatch);
+
+		} finally {
+
+			Arrays.fill(theElements, 0, aSize, null);
+			this.myBatch.mySize = 0;
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * A read-only list view of the reusable batch array.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private final class Batch extends AbstractList<E> implements RandomAccess {
+
+		private final Object[] myElements;
+
+		private int mySize;
+
+		private Batch(int aCapacity) {
+
+			super();
+
+			this.myElements = new Object[aCapacity];
+
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		public E get(int anIndex) {
+
+			if (anIndex < 0 || anIndex >= this.mySize) {
+
+				throw new IndexOutOfBoundsException(Integer.toString(anIndex));
+
+			}
+
+			return (E) this.myElements[anIndex];
+
+		}
+
+		@Override
+		public int size() {
+
+			return this.mySize;
+
+		}
+
+	}
+
+}
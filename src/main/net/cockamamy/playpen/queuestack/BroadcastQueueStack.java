@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.*;
+
+/**
+ * 
+ * A broadcast queue in which every element offered is delivered to every
+ * {@linkplain Cursor cursor}. Rather than copying each element into one queue
+ * per consumer, elements are appended once to a shared log and each cursor
+ * maintains an independent read position into it. An element is reclaimed
+ * only once the slowest open cursor has read past it, so the memory and
+ * <code>offer</code> cost are independent of the number of cursors.
+ * 
+ * The log is a power of two sized circular array addressed by a monotonically
+ * increasing sequence. The retained head is the position of the slowest open
+ * cursor, and the number of cursors at that position is tracked, so when the
+ * last of them reads past the head (or is closed) the head is advanced to the
+ * new slowest cursor and the slots behind it are cleared. Elements every
+ * cursor has read are therefore released immediately, and the log is only
+ * grown when every slot holds an element still unread by some cursor.
+ * 
+ * A cursor only sees the elements offered after it was opened. A cursor that
+ * is no longer needed must be {@linkplain Cursor#close() closed} so that it
+ * does not prevent reclamation.
+ * 
+ * <b>N.B.</b> This class is not thread-safe, and is unbounded.
+ * 
+ * @author John Burwell
+ * 
+ * @param <E>
+ *            The type of element contained in this queue
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class BroadcastQueueStack<E> {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private Object[] myLog;
+
+	private int myMask;
+
+	private long myHead;
+
+	private long myTail;
+
+	private final List<Cursor> myCursors;
+
+	private int myHeadCursorCount;
+
+	/**
+	 * 
+	 * Default constructor -- initializes an empty queue without cursors
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public BroadcastQueueStack() {
+
+		super();
+
+		this.myLog = new Object[DEFAULT_CAPACITY];
+		this.myMask = DEFAULT_CAPACITY - 1;
+		this.myCursors = new ArrayList<Cursor>();
+
+	}
+
+	/**
+	 * 
+	 * Opens a new cursor positioned at the tail of the log.
+	 * 
+	 * @return A cursor that will read every element offered from this point
+	 *         forward
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public Cursor openCursor() {
+
+		Cursor aCursor = new Cursor(this.myTail);
+
+		this.myCursors.add(aCursor);
+
+		if (this.myTail == this.myHead) {
+
+			this.myHeadCursorCount++;
+
+		}
+
+		return aCursor;
+
+	}
+
+	/**
+	 * 
+	 * Appends the passed element, <code>anObject</code>, to the shared log.
+	 * When no cursor is open, the element is discarded as no consumer could
+	 * ever read it.
+	 * 
+	 * @param anObject
+	 *            The element to broadcast
+	 * 
+	 * @return <code>true</code>
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean offer(E anObject) {
+
+		if (anObject == null) {
+
+			throw new IllegalArgumentException(
+					"nulls can not be inserted into a Queue.");
+
+		}
+
+		if (this.myCursors.isEmpty() == true) {
+
+			return true;
+
+		}
+
+		// The head is always the slowest cursor, so a full log holds only
+		// unread elements
+		if (this.myTail - this.myHead == this.myLog.length) {
+
+			this.grow();
+
+		}
+
+		this.myLog[(int) (this.myTail & this.myMask)] = anObject;
+		this.myTail++;
+
+		return true;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements retained in the shared log -- i.e. those
+	 *         not yet read by the slowest cursor
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int getRetainedCount() {
+
+		return (int) (this.myTail - this.myHead);
+
+	}
+
+	/**
+	 * 
+	 * @return The number of open cursors
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int getCursorCount() {
+
+		return this.myCursors.size();
+
+	}
+
+	/**
+	 * 
+	 * Advances the retained head to the position of the slowest open cursor,
+	 * clearing the slots of the elements that have been read by all cursors,
+	 * and counts the cursors at the new head.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void reclaim() {
+
+		long aSlowest = this.myTail;
+		int aCount = 0;
+
+		for (Cursor aCursor : this.myCursors) {
+
+			if (aCursor.myPosition < aSlowest) {
+
+				aSlowest = aCursor.myPosition;
+				aCount = 1;
+
+			} else if (aCursor.myPosition == aSlowest) {
+
+				aCount++;
+
+			}
+
+		}
+
+		while (this.myHead < aSlowest) {
+
+			this.myLog[(int) (this.myHead & this.myMask)] = null;
+			this.myHead++;
+
+		}
+
+		this.myHeadCursorCount = aCount;
+
+	}
+
+	/**
+	 * 
+	 * Doubles the size of the log, preserving the sequence addressing of the
+	 * retained elements.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void grow() {
+
+		Object[] aLog = new Object[this.myLog.length << 1];
+		int aMask = aLog.length - 1;
+
+		for (long aSequence = this.myHead; aSequence < this.myTail; aSequence++) {
+
+			aLog[(int) (aSequence & aMask)] = this.myLog[(int) (aSequence & this.myMask)];
+
+		}
+
+		this.myLog = aLog;
+		this.myMask = aMask;
+
+	}
+
+	/**
+	 * 
+	 * An independent read position into the shared log of a
+	 * {@linkplain BroadcastQueueStack}.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public final class Cursor {
+
+		private long myPosition;
+
+		private boolean myClosed;
+
+		private Cursor(long aPosition) {
+
+			super();
+
+			this.myPosition = aPosition;
+
+		}
+
+		/**
+		 * 
+		 * Retrieves, but does not advance past, the next unread element.
+		 * 
+		 * @return The next unread element, or <code>null</code> if this cursor
+		 *         has read every element
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		@SuppressWarnings("unchecked")
+		public E peek() {
+
+			this.checkOpen();
+
+			if (this.myPosition == BroadcastQueueStack.this.myTail) {
+
+				return null;
+
+			}
+
+			return (E) BroadcastQueueStack.this.myLog[(int) (this.myPosition & BroadcastQueueStack.this.myMask)];
+
+		}
+
+		/**
+		 * 
+		 * Retrieves the next unread element and advances past it.
+		 * 
+		 * @return The next unread element, or <code>null</code> if this cursor
+		 *         has read every element
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public E poll() {
+
+			E anElement = this.peek();
+
+			if (anElement != null) {
+
+				boolean anAtHead = this.myPosition == BroadcastQueueStack.this.myHead;
+				this.myPosition++;
+
+				// The last cursor to leave the head releases what every
+				// cursor has now read
+				if (anAtHead == true
+						&& --BroadcastQueueStack.this.myHeadCursorCount == 0) {
+
+					BroadcastQueueStack.this.reclaim();
+
+				}
+
+			}
+
+			return anElement;
+
+		}
+
+		/**
+		 * 
+		 * @return The number of elements offered that this cursor has not yet
+		 *         read
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public long getLag() {
+
+			return BroadcastQueueStack.this.myTail - this.myPosition;
+
+		}
+
+		/**
+		 * 
+		 * @return <code>true</code> if this cursor has read every element
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public boolean isEmpty() {
+
+			return this.getLag() == 0;
+
+		}
+
+		/**
+		 * 
+		 * Closes this cursor, releasing its hold on unread elements. Closing a
+		 * closed cursor has no effect.
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public void close() {
+
+			if (this.myClosed == false) {
+
+				this.myClosed = true;
+				BroadcastQueueStack.this.myCursors.remove(this);
+				BroadcastQueueStack.this.reclaim();
+
+			}
+
+		}
+
+		private void checkOpen() {
+
+			if (this.myClosed == true) {
+
+				throw new IllegalStateException("The cursor has been closed.");
+
+			}
+
+		}
+
+	}
+
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.*;
+
+/**
+ * 
+ * A queue of <code>long</code> values that stores its elements compressed.
+ * Elements are appended to fixed size blocks, each of which encodes the
+ * difference between consecutive values as a zig-zag variable length integer.
+ * Monotonic sequences -- sequence numbers, timestamps and the like -- thus
+ * require one or two bytes per element rather than a reference to a boxed
+ * value. Elements are decoded lazily as they are polled.
+ * 
+ * The block being read (the head) and the block being written (the tail) are
+ * referenced directly, so offering and polling an element never touch the
+ * queue of blocks. The full blocks between them are contained in a
+ * {@linkplain QueueStack} using the {@linkplain QueueStack.Strategy#TWO_STACK
+ * two stack} strategy, which is accessed once per block and flips each block
+ * reference at most once -- never the encoded values. The tail block is
+ * reused once it has been completely read, so a queue that is drained as
+ * quickly as it is filled does not allocate.
+ * 
+ * Any sequence of values may be offered, but the compression is only
+ * effective for sequences whose consecutive differences are small.
+ * <code>int</code> values may be offered by widening them.
+ * 
+ * <b>N.B.</b> This class is not thread-safe, and is unbounded.
+ * 
+ * @author John Burwell
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class CompressedLongQueueStack extends AbstractQueue<Long> {
+
+	/**
+	 * The maximum number of elements encoded in a block.
+	 */
+	static final int BLOCK_SIZE = 128;
+
+	private static final int INITIAL_BLOCK_BYTES = 2 * BLOCK_SIZE;
+
+	/**
+	 * The full blocks between the head and tail blocks
+	 */
+	private final QueueStack<Block> myBlocks;
+
+	private Block myHead;
+
+	private Block myTail;
+
+	private int mySize;
+
+	private long myEncodedSize;
+
+	/**
+	 * 
+	 * Default constructor -- initializes an empty queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public CompressedLongQueueStack() {
+
+		super();
+
+		this.myBlocks = new QueueStack<Block>(QueueStack.Strategy.TWO_STACK);
+
+	}
+
+	/**
+	 * 
+	 * Inserts the passed value, <code>aValue</code>, at the tail of this queue.
+	 * 
+	 * @param aValue
+	 *            The value to insert
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public void offerLong(long aValue) {
+
+		if (this.myTail == null) {
+
+			this.myTail = new Block();
+			this.myHead = this.myTail;
+			this.myEncodedSize += this.myTail.myData.length;
+
+		} else if (this.myTail.myCount == BLOCK_SIZE) {
+
+			this.myEncodedSize -= this.myTail.myData.length;
+			this.myTail.seal();
+			this.myEncodedSize += this.myTail.myData.length;
+
+			if (this.myTail != this.myHead) {
+
+				this.myBlocks.offer(this.myTail);
+
+			}
+
+			this.myTail = new Block();
+			this.myEncodedSize += this.myTail.myData.length;
+
+		}
+
+		int aLength = this.myTail.myData.length;
+		this.myTail.append(aValue);
+		this.myEncodedSize += this.myTail.myData.length - aLength;
+		this.mySize++;
+
+	}
+
+	/**
+	 * 
+	 * Retrieves and removes the head of this queue.
+	 * 
+	 * @return The head of this queue
+	 * 
+	 * @throws NoSuchElementException
+	 *             If this queue is empty
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long pollLong() {
+
+		if (this.mySize == 0) {
+
+			throw new NoSuchElementException();
+
+		}
+
+		Block aHead = this.myHead;
+		long aValue = aHead.next();
+
+		this.mySize--;
+
+		if (aHead.myReadCount == aHead.myCount) {
+
+			if (aHead == this.myTail) {
+
+				// The only block has been completely read -- it is reused
+				aHead.reset();
+
+			} else {
+
+				this.myEncodedSize -= aHead.myData.length;
+				this.myHead = this.myBlocks.isEmpty() == true ? this.myTail
+						: this.myBlocks.poll();
+
+			}
+
+		}
+
+		return aValue;
+
+	}
+
+	/**
+	 * 
+	 * Retrieves, but does not remove, the head of this queue.
+	 * 
+	 * @return The head of this queue
+	 * 
+	 * @throws NoSuchElementException
+	 *             If this queue is empty
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long peekLong() {
+
+		if (this.mySize == 0) {
+
+			throw new NoSuchElementException();
+
+		}
+
+		return this.myHead.peek();
+
+	}
+
+	/**
+	 * 
+	 * @return The number of bytes allocated to the encoded elements of this
+	 *         queue, excluding the fixed overhead of each block
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getEncodedSize() {
+
+		return this.myEncodedSize;
+
+	}
+
+	// BEGIN: Queue implementation
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	public boolean offer(Long aValue) {
+
+		if (aValue == null) {
+
+			throw new IllegalArgumentException(
+					"nulls can not be inserted into a Queue.");
+
+		}
+
+		this.offerLong(aValue);
+
+		return true;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#poll()
+	 */
+	public Long poll() {
+
+		if (this.mySize == 0) {
+
+			return null;
+
+		}
+
+		return this.pollLong();
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Queue#peek()
+	 */
+	public Long peek() {
+
+		if (this.mySize == 0) {
+
+			return null;
+
+		}
+
+		return this.peekLong();
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#size()
+	 */
+	public int size() {
+
+		return this.mySize;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#clear()
+	 */
+	public void clear() {
+
+		this.myBlocks.clear();
+		this.myHead = null;
+		this.myTail = null;
+		this.mySize = 0;
+		this.myEncodedSize = 0;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.Collection#iterator()
+	 */
+	public Iterator<Long> iterator() {
+
+		final QueueStack<Block>.Cursor aCursor = this.myBlocks.cursor();
+
+		return new Iterator<Long>() {
+
+			private boolean myHeadVisited;
+
+			private Block myBlock;
+
+			private int myRemaining = CompressedLongQueueStack.this.mySize;
+
+			public boolean hasNext() {
+
+				return this.myRemaining > 0;
+
+			}
+
+			public Long next() {
+
+				if (this.myRemaining == 0) {
+
+					throw new NoSuchElementException();
+
+				}
+
+				// Each block is decoded by a copy of its read state so that
+				// iteration does not consume the queue
+				if (this.myBlock == null
+						|| this.myBlock.myReadCount == this.myBlock.myCount) {
+
+					this.myBlock = this.nextBlock().copyReadState();
+
+				}
+
+				this.myRemaining--;
+
+				return this.myBlock.next();
+
+			}
+
+			public void remove() {
+
+				throw new UnsupportedOperationException();
+
+			}
+
+			/**
+			 * 
+			 * @return The head block, followed by the full blocks and then the
+			 *         tail block
+			 * 
+			 */
+			private Block nextBlock() {
+
+				if (this.myHeadVisited == false) {
+
+					this.myHeadVisited = true;
+					return CompressedLongQueueStack.this.myHead;
+
+				}
+
+				if (aCursor.hasNext() == true) {
+
+					return aCursor.next();
+
+				}
+
+				return CompressedLongQueueStack.this.myTail;
+
+			}
+
+		};
+
+	}
+
+	// END: Queue implementation
+
+	/**
+	 * 
+	 * A block of at most {@link CompressedLongQueueStack#BLOCK_SIZE} values
+	 * encoded as zig-zag variable length differences from the preceding
+	 * value.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private static final class Block {
+
+		private byte[] myData;
+
+		private int myWriteIndex;
+
+		private int myCount;
+
+		private long myLastWritten;
+
+		private int myReadIndex;
+
+		private int myReadCount;
+
+		private long myLastRead;
+
+		private Block() {
+
+			super();
+
+			this.myData = new byte[INITIAL_BLOCK_BYTES];
+
+		}
+
+		private Block(byte[] theData) {
+
+			super();
+
+			this.myData = theData;
+
+		}
+
+		private void append(long aValue) {
+
+			long aDelta = aValue - this.myLastWritten;
+			long anEncoded = (aDelta << 1) ^ (aDelta >> 63);
+
+			if (this.myWriteIndex + 10 > this.myData.length) {
+
+				this.myData = Arrays.copyOf(this.myData,
+						this.myData.length << 1);
+
+			}
+
+			while ((anEncoded & ~0x7FL) != 0) {
+
+				this.myData[this.myWriteIndex++] = (byte) ((anEncoded & 0x7F) | 0x80);
+				anEncoded >>>= 7;
+
+			}
+
+			this.myData[this.myWriteIndex++] = (byte) anEncoded;
+			this.myLastWritten = aValue;
+			this.myCount++;
+
+		}
+
+		private long peek() {
+
+			int aReadIndex = this.myReadIndex;
+			long anEncoded = 0;
+			int aShift = 0;
+			byte aByte;
+
+			do {
+
+				aByte = this.myData[aReadIndex++];
+				anEncoded |= (long) (aByte & 0x7F) << aShift;
+				aShift += 7;
+
+			} while (aByte < 0);
+
+			return this.myLastRead + ((anEncoded >>> 1) ^ -(anEncoded & 1));
+
+		}
+
+		private long next() {
+
+			long aValue = this.peek();
+
+			while (this.myData[this.myReadIndex++] < 0) {
+
+				// Skip the continuation bytes of the decoded value
+
+			}
+
+			this.myLastRead = aValue;
+			this.myReadCount++;
+
+			return aValue;
+
+		}
+
+		/**
+		 * 
+		 * Releases the unused capacity of a full block.
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		private void seal() {
+
+			if (this.myWriteIndex < this.myData.length) {
+
+				this.myData = Arrays.copyOf(this.myData, this.myWriteIndex);
+
+			}
+
+		}
+
+		private void reset() {
+
+			this.myWriteIndex = 0;
+			this.myCount = 0;
+			this.myLastWritten = 0;
+			this.myReadIndex = 0;
+			this.myReadCount = 0;
+			this.myLastRead = 0;
+
+		}
+
+		private Block copyReadState() {
+
+			Block aBlock = new Block(this.myData);
+			aBlock.myCount = this.myCount;
+			aBlock.myReadIndex = this.myReadIndex;
+			aBlock.myReadCount = this.myReadCount;
+			aBlock.myLastRead = this.myLastRead;
+
+			return aBlock;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * 
+ * A queue of keyed values in which only the latest value for each key is
+ * delivered. Offering a value for a key that is already pending replaces the
+ * pending value in place, keeping the position of the key in the queue, so the
+ * depth of the queue is bounded by the number of distinct keys and a consumer
+ * that falls behind skips the stale intermediate values.
+ * 
+ * Each pending key is held in a mutable entry that is queued in a
+ * {@linkplain QueueStack} and indexed by key in a {@linkplain HashMap}. The
+ * index refers to the entries rather than to their positions, so it remains
+ * valid as the entries are flipped between the stacks of the queue. An entry
+ * is removed from the index when it is polled, after which it is no longer
+ * updated.
+ * 
+ * <b>N.B.</b> This class is not thread-safe, and is bounded only by the number
+ * of distinct keys.
+ * 
+ * @author John Burwell
+ * 
+ * @param <K>
+ *            The type of key by which values are conflated
+ * @param <V>
+ *            The type of value contained in this queue
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class ConflatingQueueStack<K, V> {
+
+	private final QueueStack<Entry<K, V>> myEntries;
+
+	private final Map<K, Entry<K, V>> myIndex;
+
+	private long myConflatedCount;
+
+	/**
+	 * 
+	 * Default constructor -- initializes an empty queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public ConflatingQueueStack() {
+
+		super();
+
+		this.myEntries = new QueueStack<Entry<K, V>>();
+		this.myIndex = new HashMap<K, Entry<K, V>>();
+
+	}
+
+	/**
+	 * 
+	 * Adds the passed value, <code>aValue</code>, for the passed key,
+	 * <code>aKey</code>, to the tail of the queue or, if a value is already
+	 * pending for the key, replaces the pending value.
+	 * 
+	 * @return <code>true</code> if the key was added to the queue, or
+	 *         <code>false</code> if its pending value was replaced
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean offer(K aKey, V aValue) {
+
+		if (aKey == null || aValue == null) {
+
+			throw new IllegalArgumentException(
+					"nulls can not be inserted into a Queue.");
+
+		}
+
+		Entry<K, V> anEntry = this.myIndex.get(aKey);
+
+		if (anEntry != null) {
+
+			anEntry.myValue = aValue;
+			this.myConflatedCount++;
+
+			return false;
+
+		}
+
+		anEntry = new Entry<K, V>(aKey, aValue);
+		this.myEntries.offer(anEntry);
+		this.myIndex.put(aKey, anEntry);
+
+		return true;
+
+	}
+
+	/**
+	 * 
+	 * @return The entry of the key at the head of the queue, holding its
+	 *         latest value, or <code>null</code> if the queue is empty
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public Entry<K, V> poll() {
+
+		Entry<K, V> anEntry = this.myEntries.poll();
+
+		if (anEntry != null) {
+
+			this.myIndex.remove(anEntry.myKey);
+
+		}
+
+		return anEntry;
+
+	}
+
+	/**
+	 * 
+	 * @return The entry of the key at the head of the queue without removing
+	 *         it, or <code>null</code> if the queue is empty. The value of the
+	 *         entry is replaced by subsequent offers for its key.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public Entry<K, V> peek() {
+
+		return this.myEntries.peek();
+
+	}
+
+	/**
+	 * 
+	 * Removes all of the entries of this queue, passing each, in order, to the
+	 * passed consumer, <code>aConsumer</code>.
+	 * 
+	 * @return The number of entries drained
+	 * 
+	 * @see QueueStack#drain(Consumer)
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int drain(final Consumer<? super Entry<K, V>> aConsumer) {
+
+		if (aConsumer == null) {
+
+			throw new NullPointerException();
+
+		}
+
+		return this.myEntries.drain(new Consumer<Entry<K, V>>() {
+
+			public void accept(Entry<K, V> anEntry) {
+
+				ConflatingQueueStack.this.myIndex.remove(anEntry.myKey);
+				aConsumer.accept(anEntry);
+
+			}
+
+		});
+
+	}
+
+	/**
+	 * 
+	 * @return The value pending for the passed key, <code>aKey</code>, or
+	 *         <code>null</code> if none is pending
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public V getPendingValue(K aKey) {
+
+		Entry<K, V> anEntry = this.myIndex.get(aKey);
+
+		return anEntry != null ? anEntry.myValue : null;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of values that replaced a pending value rather than
+	 *         being queued
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getConflatedCount() {
+
+		return this.myConflatedCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of keys pending in the queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size() {
+
+		return this.myEntries.size();
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if no keys are pending
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isEmpty() {
+
+		return this.myEntries.isEmpty();
+
+	}
+
+	/**
+	 * 
+	 * Removes all of the pending keys.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public void clear() {
+
+		this.myEntries.clear();
+		this.myIndex.clear();
+
+	}
+
+	// BEGIN: Object implementation
+	@Override
+	public String toString() {
+
+		return this.myEntries.toString();
+
+	}
+	// END: Object implementation
+
+	/**
+	 * 
+	 * A pending key and its latest value.
+	 * 
+	 * @param <K>
+	 *            The type of the key
+	 * @param <V>
+	 *            The type of the value
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public static final class Entry<K, V> {
+
+		private final K myKey;
+
+		private V myValue;
+
+		private Entry(K aKey, V aValue) {
+
+			super();
+
+			this.myKey = aKey;
+			this.myValue = aValue;
+
+		}
+
+		/**
+		 * 
+		 * @return The key
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public K getKey() {
+
+			return this.myKey;
+
+		}
+
+		/**
+		 * 
+		 * @return The latest value offered for the key
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public V getValue() {
+
+			return this.myValue;
+
+		}
+
+		// BEGIN: Object implementation
+		@Override
+		public String toString() {
+
+			return this.myKey + "=" + this.myValue;
+
+		}
+		// END: Object implementation
+
+	}
+
+}
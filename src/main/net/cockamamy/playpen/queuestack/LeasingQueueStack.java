@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.concurrent.*;
+
+/**
+ * 
+ * A queue from which elements are leased rather than polled. Each lease
+ * carries an id that the consumer acknowledges once it has processed the
+ * element. A lease that is not acknowledged before it expires is redelivered
+ * -- ahead of any pending elements -- under a new id.
+ * 
+ * Pending elements are held in a {@linkplain QueueStack}. In-flight leases are
+ * held in a ring of parallel arrays indexed by the low bits of their id rather
+ * than in a map. Ids are issued sequentially and every lease has the same
+ * duration, so leases expire in the order of their ids -- only the oldest
+ * lease at the head of the ring needs to be checked for expiry, and
+ * acknowledging a lease is a bounds check and an array store.
+ * 
+ * The ring spans every id from the oldest unacknowledged lease to the next id
+ * to be issued, so a lease acknowledged behind an older unacknowledged lease
+ * still occupies its slot until the older lease is acknowledged or expires.
+ * The ring grows when that span fills it -- a single stuck lease therefore
+ * makes the ring grow with the number of leases issued until it expires, i.e.
+ * with the lease rate multiplied by the lease duration, rather than with the
+ * number of outstanding leases. The ring never shrinks.
+ * 
+ * <b>N.B.</b> This class is not thread-safe, and is unbounded.
+ * 
+ * @author John Burwell
+ * 
+ * @param <E>
+ *            The type of element contained in this queue
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class LeasingQueueStack<E> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final QueueStack<E> myPendingElements;
+
+	private final long myLeaseDuration;
+
+	private final Ticker myTicker;
+
+	private Object[] myLeasedElements;
+
+	private long[] myDeadlines;
+
+	private int[] myDeliveryCounts;
+
+	private int myMask;
+
+	/**
+	 * The id of the oldest lease that may still be in-flight
+	 */
+	private long myHeadId;
+
+	/**
+	 * The id of the next lease to be issued
+	 */
+	private long myNextId;
+
+	private int myInFlightCount;
+
+	/**
+	 * 
+	 * Initializes an empty queue using the system ticker.
+	 * 
+	 * @param aLeaseDuration
+	 *            The time a consumer has to acknowledge a lease before its
+	 *            element is redelivered
+	 * @param aUnit
+	 *            The unit of <code>aLeaseDuration</code>
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public LeasingQueueStack(long aLeaseDuration, TimeUnit aUnit) {
+
+		this(aLeaseDuration, aUnit, Ticker.SYSTEM);
+
+	}
+
+	/**
+	 * 
+	 * Initializes an empty queue.
+	 * 
+	 * @param aLeaseDuration
+	 *            The time a consumer has to acknowledge a lease before its
+	 *            element is redelivered
+	 * @param aUnit
+	 *            The unit of <code>aLeaseDuration</code>
+	 * @param aTicker
+	 *            The source of the time at which leases are issued and expire
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public LeasingQueueStack(long aLeaseDuration, TimeUnit aUnit,
+			Ticker aTicker) {
+
+		super();
+
+		if (aLeaseDuration < 0) {
+
+			throw new IllegalArgumentException(
+					"The lease duration must not be negative.");
+
+		}
+
+		if (aUnit == null || aTicker == null) {
+
+			throw new NullPointerException();
+
+		}
+
+		this.myPendingElements = new QueueStack<E>();
+		this.myLeaseDuration = aUnit.toNanos(aLeaseDuration);
+		this.myTicker = aTicker;
+		this.myLeasedElements = new Object[INITIAL_CAPACITY];
+		this.myDeadlines = new long[INITIAL_CAPACITY];
+		this.myDeliveryCounts = new int[INITIAL_CAPACITY];
+		this.myMask = INITIAL_CAPACITY - 1;
+
+	}
+
+	/**
+	 * 
+	 * Adds the passed element, <code>anElement</code>, to the tail of the
+	 * pending elements.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean offer(E anElement) {
+
+		if (anElement == null) {
+
+			throw new IllegalArgumentException(
+					"nulls can not be inserted into a Queue.");
+
+		}
+
+		return this.myPendingElements.offer(anElement);
+
+	}
+
+	/**
+	 * 
+	 * Leases the element of the oldest expired lease, if any, and otherwise
+	 * the head of the pending elements.
+	 * 
+	 * @return The new lease, or <code>null</code> if there are no expired
+	 *         leases or pending elements
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	@SuppressWarnings("unchecked")
+	public Lease<E> pollLease() {
+
+		long aNow = this.myTicker.read();
+		E anElement;
+		int aDeliveryCount;
+
+		if (this.myHeadId != this.myNextId
+				&& this.myDeadlines[this.index(this.myHeadId)] - aNow <= 0) {
+
+			int anIndex = this.index(this.myHeadId);
+			anElement = (E) this.myLeasedElements[anIndex];
+			aDeliveryCount = this.myDeliveryCounts[anIndex] + 1;
+
+			this.myLeasedElements[anIndex] = null;
+			this.myInFlightCount--;
+			this.myHeadId++;
+			this.advanceHead();
+
+		} else {
+
+			anElement = this.myPendingElements.poll();
+
+			if (anElement == null) {
+
+				return null;
+
+			}
+
+			aDeliveryCount = 1;
+
+		}
+
+		if (this.myNextId - this.myHeadId == this.myLeasedElements.length) {
+
+			this.grow();
+
+		}
+
+		long anId = this.myNextId++;
+		int anIndex = this.index(anId);
+		this.myLeasedElements[anIndex] = anElement;
+		this.myDeadlines[anIndex] = aNow + this.myLeaseDuration;
+		this.myDeliveryCounts[anIndex] = aDeliveryCount;
+		this.myInFlightCount++;
+
+		return new Lease<E>(anId, anElement, aDeliveryCount);
+
+	}
+
+	/**
+	 * 
+	 * Acknowledges that the element of the lease identified by the passed id,
+	 * <code>aLeaseId</code>, has been processed, releasing it.
+	 * 
+	 * @return <code>false</code> if the lease is unknown, was already
+	 *         acknowledged, or has been redelivered under a new lease
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean ack(long aLeaseId) {
+
+		if (aLeaseId < this.myHeadId || aLeaseId >= this.myNextId) {
+
+			return false;
+
+		}
+
+		int anIndex = this.index(aLeaseId);
+
+		if (this.myLeasedElements[anIndex] == null) {
+
+			return false;
+
+		}
+
+		this.myLeasedElements[anIndex] = null;
+		this.myInFlightCount--;
+		this.advanceHead();
+
+		return true;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements waiting to be leased for the first time
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int getPendingCount() {
+
+		return this.myPendingElements.size();
+
+	}
+
+	/**
+	 * 
+	 * @return The number of unacknowledged leases, including expired leases
+	 *         that have not yet been redelivered
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int getInFlightCount() {
+
+		return this.myInFlightCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements not yet acknowledged
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size() {
+
+		return this.myPendingElements.size() + this.myInFlightCount;
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if every element has been acknowledged
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isEmpty() {
+
+		return this.size() == 0;
+
+	}
+
+	/**
+	 * 
+	 * @return The slot of the ring holding the lease identified by the passed
+	 *         id, <code>aLeaseId</code>
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private int index(long aLeaseId) {
+
+		return (int) aLeaseId & this.myMask;
+
+	}
+
+	/**
+	 * 
+	 * Moves the head of the ring past acknowledged leases.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void advanceHead() {
+
+		while (this.myHeadId != this.myNextId
+				&& this.myLeasedElements[this.index(this.myHeadId)] == null) {
+
+			this.myHeadId++;
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Doubles the capacity of the ring, re-indexing the leases between the
+	 * head and the next id.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void grow() {
+
+		int aCapacity = this.myLeasedElements.length << 1;
+
+		if (aCapacity < 0) {
+
+			throw new IllegalStateException("The lease ring is full.");
+
+		}
+
+		Object[] theLeasedElements = new Object[aCapacity];
+		long[] theDeadlines = new long[aCapacity];
+		int[] theDeliveryCounts = new int[aCapacity];
+		int aMask = aCapacity - 1;
+
+		for (long anId = this.myHeadId; anId != this.myNextId; anId++) {
+
+			int anOldIndex = this.index(anId);
+			int aNewIndex = (int) anId & aMask;
+
+			theLeasedElements[aNewIndex] = this.myLeasedElements[anOldIndex];
+			theDeadlines[aNewIndex] = this.myDeadlines[anOldIndex];
+			theDeliveryCounts[aNewIndex] = this.myDeliveryCounts[anOldIndex];
+
+		}
+
+		this.myLeasedElements = theLeasedElements;
+		this.myDeadlines = theDeadlines;
+		this.myDeliveryCounts = theDeliveryCounts;
+		this.myMask = aMask;
+
+	}
+
+	/**
+	 * 
+	 * An element leased to a consumer.
+	 * 
+	 * @param <E>
+	 *            The type of the leased element
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public static final class Lease<E> {
+
+		private final long myId;
+
+		private final E myElement;
+
+		private final int myDeliveryCount;
+
+		private Lease(long anId, E anElement, int aDeliveryCount) {
+
+			super();
+
+			this.myId = anId;
+			this.myElement = anElement;
+			this.myDeliveryCount = aDeliveryCount;
+
+		}
+
+		/**
+		 * 
+		 * @return The id with which the lease is acknowledged
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public long getId() {
+
+			return this.myId;
+
+		}
+
+		/**
+		 * 
+		 * @return The leased element
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public E getElement() {
+
+			return this.myElement;
+
+		}
+
+		/**
+		 * 
+		 * @return The number of times the element has been leased, including
+		 *         this lease
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public int getDeliveryCount() {
+
+			return this.myDeliveryCount;
+
+		}
+
+		// BEGIN: Object implementation
+		@Override
+		public String toString() {
+
+			return "Lease[id=" + this.myId + ", element=" + this.myElement
+					+ ", deliveryCount=" + this.myDeliveryCount + "]";
+
+		}
+		// END: Object implementation
+
+	}
+
+}
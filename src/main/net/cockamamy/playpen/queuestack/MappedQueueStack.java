@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * 
+ * A bounded, multi-producer/single-consumer queue of byte array elements
+ * stored in a memory mapped file. Processes on the same host that map the
+ * same file exchange elements through shared memory -- an <code>offer</code>
+ * is a copy into the mapping followed by an ordered write, and involves
+ * neither a system call nor a serialization round-trip.
+ * 
+ * The file consists of a header followed by a power of two number of fixed
+ * size slots. The header holds the capacity, the maximum element size, the
+ * head sequence (written only by the consumer) and the tail sequence (claimed
+ * by producers via compare-and-set), each on its own cache line. Every slot
+ * carries its own sequence number, which hands the slot back and forth
+ * between the producers and the consumer: a producer that claims tail
+ * position <code>p</code> publishes its element by setting the sequence of the
+ * slot to <code>p + 1</code> with release semantics, and the consumer frees
+ * the slot by setting it to <code>p + capacity</code>. All shared counters are
+ * accessed through a {@linkplain VarHandle} with acquire/release semantics.
+ * 
+ * <b>N.B.</b> This class is safe for use by any number of producer threads
+ * and processes, but only a single consumer thread (in a single process) may
+ * poll at any given time. It is bounded by its capacity.
+ * 
+ * @author John Burwell
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class MappedQueueStack implements Closeable {
+
+	private static final VarHandle LONGS = MethodHandles
+			.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	private static final long MAGIC = 0x5155455545535443L;
+
+	private static final int CACHE_LINE_SIZE = 64;
+
+	private static final int MAGIC_OFFSET = 0;
+
+	private static final int CAPACITY_OFFSET = 8;
+
+	private static final int MAX_ELEMENT_SIZE_OFFSET = 12;
+
+	private static final int HEAD_OFFSET = CACHE_LINE_SIZE;
+
+	private static final int TAIL_OFFSET = 2 * CACHE_LINE_SIZE;
+
+	private static final int SLOTS_OFFSET = 3 * CACHE_LINE_SIZE;
+
+	private static final int SLOT_LENGTH_OFFSET = 8;
+
+	private static final int SLOT_PAYLOAD_OFFSET = 12;
+
+	private final FileChannel myChannel;
+
+	private final MappedByteBuffer myBuffer;
+
+	private final int myCapacity;
+
+	private final int myMask;
+
+	private final int myMaxElementSize;
+
+	private final int mySlotSize;
+
+	private MappedQueueStack(FileChannel aChannel, MappedByteBuffer aBuffer,
+			int aCapacity, int aMaxElementSize) {
+
+		super();
+
+		this.myChannel = aChannel;
+		this.myBuffer = aBuffer;
+		this.myCapacity = aCapacity;
+		this.myMask = aCapacity - 1;
+		this.myMaxElementSize = aMaxElementSize;
+		this.mySlotSize = slotSize(aMaxElementSize);
+
+	}
+
+	/**
+	 * 
+	 * Creates (or replaces) the passed file, <code>aPath</code>, and
+	 * initializes an empty queue in it.
+	 * 
+	 * @param aPath
+	 *            The file to be shared by the processes exchanging elements
+	 * @param aCapacity
+	 *            The maximum number of elements, which must be a power of two
+	 * @param aMaxElementSize
+	 *            The maximum size of an element in bytes
+	 * 
+	 * @return The newly created queue
+	 * 
+	 * @throws IOException
+	 *             If the file can not be created or mapped
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public static MappedQueueStack create(Path aPath, int aCapacity,
+			int aMaxElementSize) throws IOException {
+
+		if (aCapacity < 1 || Integer.bitCount(aCapacity) != 1) {
+
+			throw new IllegalArgumentException(
+					"The capacity must be a positive power of two.");
+
+		}
+
+		if (aMaxElementSize < 0) {
+
+			throw new IllegalArgumentException(
+					"The maximum element size must not be negative.");
+
+		}
+
+		long aFileSize = SLOTS_OFFSET + (long) aCapacity
+				* ((SLOT_PAYLOAD_OFFSET + (long) aMaxElementSize + 7) & ~7L);
+
+		if (aFileSize > Integer.MAX_VALUE) {
+
+			throw new IllegalArgumentException(
+					"The capacity and maximum element size exceed the size of a mapping.");
+
+		}
+
+		FileChannel aChannel = FileChannel.open(aPath,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+
+			MappedByteBuffer aBuffer = aChannel.map(
+					FileChannel.MapMode.READ_WRITE, 0, aFileSize);
+			aBuffer.order(ByteOrder.nativeOrder());
+
+			MappedQueueStack aQueue = new MappedQueueStack(aChannel, aBuffer,
+					aCapacity, aMaxElementSize);
+
+			aBuffer.putInt(CAPACITY_OFFSET, aCapacity);
+			aBuffer.putInt(MAX_ELEMENT_SIZE_OFFSET, aMaxElementSize);
+			LONGS.setRelease(aBuffer, HEAD_OFFSET, 0L);
+			LONGS.setRelease(aBuffer, TAIL_OFFSET, 0L);
+
+			for (int i = 0; i < aCapacity; i++) {
+
+				LONGS.setRelease(aBuffer, aQueue.getSlotOffset(i), (long) i);
+
+			}
+
+			// Publishing the magic number last ensures that a process opening
+			// the file never observes a partially initialized queue
+			LONGS.setRelease(aBuffer, MAGIC_OFFSET, MAGIC);
+
+			return aQueue;
+
+		} catch (IOException e) {
+
+			aChannel.close();
+			throw e;
+
+		} catch (RuntimeException e) {
+
+			aChannel.close();
+			throw e;
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Opens a queue previously created in the passed file, <code>aPath</code>,
+	 * by {@linkplain #create(Path, int, int)}.
+	 * 
+	 * @param aPath
+	 *            The file shared by the processes exchanging elements
+	 * 
+	 * @return The queue contained in the file
+	 * 
+	 * @throws IOException
+	 *             If the file can not be opened or mapped, or does not contain
+	 *             an initialized queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public static MappedQueueStack open(Path aPath) throws IOException {
+
+		FileChannel aChannel = FileChannel.open(aPath,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+
+			if (aChannel.size() < SLOTS_OFFSET) {
+
+				throw new IOException(String.format(
+						"%1$s does not contain an initialized queue.", aPath));
+
+			}
+
+			MappedByteBuffer aBuffer = aChannel.map(
+					FileChannel.MapMode.READ_WRITE, 0, aChannel.size());
+			aBuffer.order(ByteOrder.nativeOrder());
+
+			if ((long) LONGS.getAcquire(aBuffer, MAGIC_OFFSET) != MAGIC) {
+
+				throw new IOException(String.format(
+						"%1$s does not contain an initialized queue.", aPath));
+
+			}
+
+			return new MappedQueueStack(aChannel, aBuffer,
+					aBuffer.getInt(CAPACITY_OFFSET),
+					aBuffer.getInt(MAX_ELEMENT_SIZE_OFFSET));
+
+		} catch (IOException e) {
+
+			aChannel.close();
+			throw e;
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Inserts the passed element, <code>anElement</code>, if a slot is free.
+	 * 
+	 * @param anElement
+	 *            The element to insert
+	 * 
+	 * @return <code>true</code> if the element was inserted, or
+	 *         <code>false</code> if the queue is full
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean offer(byte[] anElement) {
+
+		if (anElement == null) {
+
+			throw new IllegalArgumentException(
+					"nulls can not be inserted into a Queue.");
+
+		}
+
+		if (anElement.length > this.myMaxElementSize) {
+
+			throw new IllegalArgumentException(String.format(
+					"The element size %1$s exceeds the maximum of %2$s.",
+					anElement.length, this.myMaxElementSize));
+
+		}
+
+		while (true) {
+
+			long aPosition = (long) LONGS.getAcquire(this.myBuffer, TAIL_OFFSET);
+			int aSlotOffset = this.getSlotOffset(aPosition);
+			long aSequence = (long) LONGS.getAcquire(this.myBuffer, aSlotOffset);
+
+			if (aSequence == aPosition) {
+
+				if (LONGS.compareAndSet(this.myBuffer, TAIL_OFFSET, aPosition,
+						aPosition + 1) == true) {
+
+					this.myBuffer.putInt(aSlotOffset + SLOT_LENGTH_OFFSET,
+							anElement.length);
+					this.myBuffer.put(aSlotOffset + SLOT_PAYLOAD_OFFSET,
+							anElement);
+					LONGS.setRelease(this.myBuffer, aSlotOffset, aPosition + 1);
+
+					return true;
+
+				}
+
+			} else if (aSequence < aPosition) {
+
+				// The slot has not yet been freed by the consumer
+				return false;
+
+			}
+
+			// Otherwise, another producer claimed the position -- retry
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Retrieves and removes the head of this queue. Only a single consumer
+	 * may call this method at any given time.
+	 * 
+	 * @return The head of this queue, or <code>null</code> if this queue is
+	 *         empty or the producer of the head has not yet published it
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public byte[] poll() {
+
+		long aPosition = (long) LONGS.getAcquire(this.myBuffer, HEAD_OFFSET);
+		int aSlotOffset = this.getSlotOffset(aPosition);
+
+		if ((long) LONGS.getAcquire(this.myBuffer, aSlotOffset) != aPosition + 1) {
+
+			return null;
+
+		}
+
+		byte[] anElement = new byte[this.myBuffer.getInt(aSlotOffset
+				+ SLOT_LENGTH_OFFSET)];
+		this.myBuffer.get(aSlotOffset + SLOT_PAYLOAD_OFFSET, anElement);
+
+		LONGS.setRelease(this.myBuffer, aSlotOffset, aPosition
+				+ this.myCapacity);
+		LONGS.setRelease(this.myBuffer, HEAD_OFFSET, aPosition + 1);
+
+		return anElement;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements claimed by producers and not yet polled.
+	 *         As producers and the consumer may be concurrently active, the
+	 *         result is an estimate.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size() {
+
+		long aHead = (long) LONGS.getAcquire(this.myBuffer, HEAD_OFFSET);
+		long aTail = (long) LONGS.getAcquire(this.myBuffer, TAIL_OFFSET);
+
+		return (int) Math.max(0, Math.min(aTail - aHead, this.myCapacity));
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if this queue is estimated to contain no
+	 *         elements
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isEmpty() {
+
+		return this.size() == 0;
+
+	}
+
+	/**
+	 * 
+	 * @return The maximum number of elements
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int getCapacity() {
+
+		return this.myCapacity;
+
+	}
+
+	/**
+	 * 
+	 * @return The maximum size of an element in bytes
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int getMaxElementSize() {
+
+		return this.myMaxElementSize;
+
+	}
+
+	/**
+	 * 
+	 * Closes the file backing this queue. The mapping itself is released when
+	 * this queue is garbage collected.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public void close() throws IOException {
+
+		this.myChannel.close();
+
+	}
+
+	private int getSlotOffset(long aPosition) {
+
+		return SLOTS_OFFSET + (int) (aPosition & this.myMask) * this.mySlotSize;
+
+	}
+
+	/**
+	 * 
+	 * @return The size of a slot -- the sequence, length and payload rounded
+	 *         up to a multiple of eight bytes so that each sequence is aligned
+	 *         for atomic access
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private static int slotSize(int aMaxElementSize) {
+
+		return (SLOT_PAYLOAD_OFFSET + aMaxElementSize + 7) & ~7;
+
+	}
+
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.*;
+
+/**
+ * 
+ * An immutable, persistent queue built from two stacks -- front and rear --
+ * in the manner of Okasaki's banker's queue. Elements are offered by pushing
+ * them onto the rear stack and polled by popping them from the front stack.
+ * When the rear stack grows larger than the front stack, it is lazily
+ * reversed and appended to the front. Neither stack is ever modified, so
+ * <code>offer</code> and <code>poll</code> return new versions of the queue
+ * that share structure with the version from which they were derived, and a
+ * {@linkplain #snapshot() snapshot} is simply a reference to the current
+ * version.
+ * 
+ * The reversal of the rear stack is suspended until its first element is
+ * polled and its result is memoized. Therefore, the reversal is paid for at
+ * most once no matter how many versions share it, and <code>offer</code> and
+ * <code>poll</code> run in amortized constant time even when older versions
+ * continue to be used.
+ * 
+ * <b>N.B.</b> This class is thread-safe, and is unbounded.
+ * 
+ * @author John Burwell
+ * 
+ * @param <E>
+ *            The type of element contained in this queue
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class PersistentQueueStack<E> implements Iterable<E> {
+
+	@SuppressWarnings("rawtypes")
+	private static final PersistentQueueStack EMPTY = new PersistentQueueStack<Object>(
+			Stream.empty(), 0, null, 0);
+
+	private final Stream<E> myFront;
+
+	private final int myFrontSize;
+
+	private final Node<E> myRear;
+
+	private final int myRearSize;
+
+	private PersistentQueueStack(Stream<E> aFront, int aFrontSize,
+			Node<E> aRear, int aRearSize) {
+
+		super();
+
+		this.myFront = aFront;
+		this.myFrontSize = aFrontSize;
+		this.myRear = aRear;
+		this.myRearSize = aRearSize;
+
+	}
+
+	/**
+	 * 
+	 * @param <E>
+	 *            The type of element contained in the queue
+	 * 
+	 * @return The empty queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E> PersistentQueueStack<E> empty() {
+
+		return EMPTY;
+
+	}
+
+	/**
+	 * 
+	 * Establishes the invariant that the rear stack is never larger than the
+	 * front stack by suspending the reversal of the rear stack onto the end of
+	 * the front stack.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private static <E> PersistentQueueStack<E> create(Stream<E> aFront,
+			int aFrontSize, Node<E> aRear, int aRearSize) {
+
+		if (aRearSize <= aFrontSize) {
+
+			return new PersistentQueueStack<E>(aFront, aFrontSize, aRear,
+					aRearSize);
+
+		}
+
+		return new PersistentQueueStack<E>(Stream.append(aFront, aRear),
+				aFrontSize + aRearSize, null, 0);
+
+	}
+
+	/**
+	 * 
+	 * @param anObject
+	 *            The element to insert at the tail of the queue
+	 * 
+	 * @return A new version of this queue with the passed element,
+	 *         <code>anObject</code>, inserted at its tail
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public PersistentQueueStack<E> offer(E anObject) {
+
+		if (anObject == null) {
+
+			throw new IllegalArgumentException(
+					"nulls can not be inserted into a Queue.");
+
+		}
+
+		return create(this.myFront, this.myFrontSize, new Node<E>(anObject,
+				this.myRear), this.myRearSize + 1);
+
+	}
+
+	/**
+	 * 
+	 * @return The head of this queue, or <code>null</code> if this queue is
+	 *         empty
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public E peek() {
+
+		if (this.isEmpty() == true) {
+
+			return null;
+
+		}
+
+		return this.myFront.force().myHead;
+
+	}
+
+	/**
+	 * 
+	 * @return A new version of this queue without its head, or this queue if
+	 *         it is empty
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public PersistentQueueStack<E> poll() {
+
+		if (this.isEmpty() == true) {
+
+			return this;
+
+		}
+
+		return create(this.myFront.force().myTail, this.myFrontSize - 1,
+				this.myRear, this.myRearSize);
+
+	}
+
+	/**
+	 * 
+	 * @return This queue -- as it is immutable, the current version is itself
+	 *         a point-in-time snapshot
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public PersistentQueueStack<E> snapshot() {
+
+		return this;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements contained in this queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size() {
+
+		return this.myFrontSize + this.myRearSize;
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if this queue contains no elements
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isEmpty() {
+
+		// The front is only empty when the rear is empty
+		return this.myFrontSize == 0;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.lang.Iterable#iterator()
+	 */
+	public Iterator<E> iterator() {
+
+		return new Iterator<E>() {
+
+			private Stream<E> myNextFront = PersistentQueueStack.this.myFront;
+
+			private int myFrontRemaining = PersistentQueueStack.this.myFrontSize;
+
+			private Object[] myRearElements;
+
+			private int myRearIndex;
+
+			public boolean hasNext() {
+
+				return this.myFrontRemaining > 0
+						|| (this.myRearElements == null ? PersistentQueueStack.this.myRearSize > 0
+								: this.myRearIndex >= 0);
+
+			}
+
+			@SuppressWarnings("unchecked")
+			public E next() {
+
+				if (this.hasNext() == false) {
+
+					throw new NoSuchElementException();
+
+				}
+
+				if (this.myFrontRemaining > 0) {
+
+					Stream<E> aCell = this.myNextFront.force();
+					this.myNextFront = aCell.myTail;
+					this.myFrontRemaining--;
+
+					return aCell.myHead;
+
+				}
+
+				if (this.myRearElements == null) {
+
+					this.myRearElements = toArray(PersistentQueueStack.this.myRear,
+							PersistentQueueStack.this.myRearSize);
+					this.myRearIndex = this.myRearElements.length - 1;
+
+				}
+
+				return (E) this.myRearElements[this.myRearIndex--];
+
+			}
+
+			public void remove() {
+
+				throw new UnsupportedOperationException(
+						"A PersistentQueueStack is immutable.");
+
+			}
+
+		};
+
+	}
+
+	private static Object[] toArray(Node<?> aNode, int aSize) {
+
+		Object[] anArray = new Object[aSize];
+
+		for (int i = 0; aNode != null; i++, aNode = aNode.myNext) {
+
+			anArray[i] = aNode.myValue;
+
+		}
+
+		return anArray;
+
+	}
+
+	// BEGIN: Object implementation
+	@Override
+	public boolean equals(Object thatObject) {
+
+		if (this == thatObject) {
+
+			return true;
+
+		}
+
+		if (thatObject instanceof PersistentQueueStack<?> == false) {
+
+			return false;
+
+		}
+
+		PersistentQueueStack<?> thatQueue = (PersistentQueueStack<?>) thatObject;
+
+		if (this.size() != thatQueue.size()) {
+
+			return false;
+
+		}
+
+		Iterator<?> anIterator = thatQueue.iterator();
+		for (E anElement : this) {
+
+			if (anElement.equals(anIterator.next()) == false) {
+
+				return false;
+
+			}
+
+		}
+
+		return true;
+
+	}
+
+	@Override
+	public int hashCode() {
+
+		int aHashCode = 37;
+
+		for (E anElement : this) {
+
+			aHashCode = (aHashCode * 17) + anElement.hashCode();
+
+		}
+
+		return aHashCode;
+
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder aBuilder = new StringBuilder("[");
+
+		for (E anElement : this) {
+
+			if (aBuilder.length() > 1) {
+
+				aBuilder.append(", ");
+
+			}
+
+			aBuilder.append(anElement);
+
+		}
+
+		return aBuilder.append(']').toString();
+
+	}
+	// END: Object implementation
+
+	/**
+	 * 
+	 * An immutable cell of a persistent linked stack.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private static final class Node<E> {
+
+		private final E myValue;
+
+		private final Node<E> myNext;
+
+		private Node(E aValue, Node<E> aNext) {
+
+			super();
+
+			this.myValue = aValue;
+			this.myNext = aNext;
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * A lazily evaluated, memoized persistent stack. An unevaluated cell is
+	 * the suspended concatenation of a prefix stream and the reversal of a
+	 * rear stack. Evaluating the cell yields its head and the (unevaluated)
+	 * remainder. Once evaluated, the references to the prefix and rear are
+	 * released.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private static final class Stream<E> {
+
+		@SuppressWarnings("rawtypes")
+		private static final Stream EMPTY = new Stream<Object>(null, null);
+
+		private Stream<E> myPrefix;
+
+		private Node<E> myRear;
+
+		private boolean myEvaluated;
+
+		private E myHead;
+
+		private Stream<E> myTail;
+
+		private Stream(Stream<E> aPrefix, Node<E> aRear) {
+
+			super();
+
+			this.myPrefix = aPrefix;
+			this.myRear = aRear;
+			this.myEvaluated = (aPrefix == null && aRear == null);
+
+		}
+
+		@SuppressWarnings("unchecked")
+		private static <E> Stream<E> empty() {
+
+			return EMPTY;
+
+		}
+
+		private static <E> Stream<E> append(Stream<E> aPrefix, Node<E> aRear) {
+
+			return new Stream<E>(aPrefix, aRear);
+
+		}
+
+		/**
+		 * 
+		 * Evaluates this cell, if it has not already been evaluated.
+		 * 
+		 * @return This cell
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		@SuppressWarnings("unchecked")
+		private synchronized Stream<E> force() {
+
+			if (this.myEvaluated == true) {
+
+				return this;
+
+			}
+
+			Stream<E> aPrefix = this.myPrefix.force();
+
+			if (aPrefix != EMPTY) {
+
+				this.myHead = aPrefix.myHead;
+				this.myTail = append(aPrefix.myTail, this.myRear);
+
+			} else {
+
+				// The prefix is exhausted -- the rear is reversed in its
+				// entirety into evaluated cells. As the rear is ordered from
+				// newest to oldest, pushing each element yields the oldest at
+				// the head.
+				Stream<E> aReversed = EMPTY;
+				for (Node<E> aNode = this.myRear; aNode != null; aNode = aNode.myNext) {
+
+					Stream<E> aCell = new Stream<E>(null, null);
+					aCell.myHead = aNode.myValue;
+					aCell.myTail = aReversed;
+					aReversed = aCell;
+
+				}
+
+				this.myHead = aReversed.myHead;
+				this.myTail = aReversed.myTail;
+
+			}
+
+			this.myPrefix = null;
+			this.myRear = null;
+			this.myEvaluated = true;
+
+			return this;
+
+		}
+
+	}
+
+}
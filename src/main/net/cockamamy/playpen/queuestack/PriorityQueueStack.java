@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.*;
+
+/**
+ * 
+ * A multi-level queue composed of one {@linkplain QueueStack} per priority
+ * level. Level <code>0</code> is the highest priority. A bitmap of the
+ * non-empty levels is maintained on every <code>offer</code> and
+ * <code>poll</code> so that the highest non-empty level is located in constant
+ * time (a single trailing zero count) rather than by scanning the levels or by
+ * maintaining a heap. Elements within a level are delivered in order of
+ * insertion.
+ * 
+ * Optionally, lower priority levels can be aged to prevent starvation. When an
+ * aging interval is specified, every <code>anAgingInterval</code> polls the
+ * head element of each non-empty level below the highest non-empty level is
+ * promoted one level. As the number of levels is bounded, promotion is a
+ * constant time operation.
+ * 
+ * <b>N.B.</b> This class is not thread-safe, and is unbounded.
+ * 
+ * @author John Burwell
+ * 
+ * @param <E>
+ *            The type of element contained in this queue
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class PriorityQueueStack<E> {
+
+	/**
+	 * The maximum number of priority levels supported (the number of bits in
+	 * the non-empty level bitmap).
+	 */
+	public static final int MAX_LEVELS = Integer.SIZE;
+
+	private final QueueStack<E>[] myLevels;
+
+	private final int myAgingInterval;
+
+	private int myNonEmptyLevels;
+
+	private int mySize;
+
+	private int myPollsSinceAging;
+
+	/**
+	 * 
+	 * Constructs an empty queue with the specified number of priority levels
+	 * and aging disabled.
+	 * 
+	 * @param aLevelCount
+	 *            The number of priority levels, between 1 and
+	 *            {@link #MAX_LEVELS} inclusive
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public PriorityQueueStack(int aLevelCount) {
+
+		this(aLevelCount, 0);
+
+	}
+
+	/**
+	 * 
+	 * Constructs an empty queue with the specified number of priority levels
+	 * and aging interval.
+	 * 
+	 * @param aLevelCount
+	 *            The number of priority levels, between 1 and
+	 *            {@link #MAX_LEVELS} inclusive
+	 * @param anAgingInterval
+	 *            The number of polls between promotions of lower priority
+	 *            elements. A value of <code>0</code> disables aging.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public PriorityQueueStack(int aLevelCount, int anAgingInterval) {
+
+		super();
+
+		if (aLevelCount < 1 || aLevelCount > MAX_LEVELS) {
+
+			throw new IllegalArgumentException(String.format(
+					"The level count must be between 1 and %1$s, but was %2$s.",
+					MAX_LEVELS, aLevelCount));
+
+		}
+
+		if (anAgingInterval < 0) {
+
+			throw new IllegalArgumentException(
+					"The aging interval must not be negative.");
+
+		}
+
+		this.myLevels = new QueueStack[aLevelCount];
+		for (int i = 0; i < aLevelCount; i++) {
+
+			this.myLevels[i] = new QueueStack<E>();
+
+		}
+
+		this.myAgingInterval = anAgingInterval;
+
+	}
+
+	/**
+	 * 
+	 * Inserts the passed element, <code>anObject</code>, at the tail of the
+	 * passed priority level, <code>aLevel</code>.
+	 * 
+	 * @param anObject
+	 *            The element to insert
+	 * @param aLevel
+	 *            The priority level of the element where <code>0</code> is the
+	 *            highest priority
+	 * 
+	 * @return <code>true</code> if the element was inserted
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean offer(E anObject, int aLevel) {
+
+		this.checkLevel(aLevel);
+
+		if (this.myLevels[aLevel].offer(anObject) == false) {
+
+			return false;
+
+		}
+
+		this.myNonEmptyLevels |= (1 << aLevel);
+		this.mySize++;
+
+		return true;
+
+	}
+
+	/**
+	 * 
+	 * Retrieves, but does not remove, the head of the highest non-empty
+	 * priority level.
+	 * 
+	 * @return The head of the highest non-empty priority level, or
+	 *         <code>null</code> if this queue is empty
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public E peek() {
+
+		if (this.myNonEmptyLevels == 0) {
+
+			return null;
+
+		}
+
+		return this.myLevels[this.getHighestLevel()].peek();
+
+	}
+
+	/**
+	 * 
+	 * Retrieves and removes the head of the highest non-empty priority level.
+	 * 
+	 * @return The head of the highest non-empty priority level, or
+	 *         <code>null</code> if this queue is empty
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public E poll() {
+
+		if (this.myNonEmptyLevels == 0) {
+
+			return null;
+
+		}
+
+		this.age();
+
+		return this.pollLevel(this.getHighestLevel());
+
+	}
+
+	/**
+	 * 
+	 * Removes all elements from this queue and adds them to the passed
+	 * collection, <code>aCollection</code>, in priority order.
+	 * 
+	 * @param aCollection
+	 *            The collection to which elements are transferred
+	 * 
+	 * @return The number of elements transferred
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int drainTo(Collection<? super E> aCollection) {
+
+		return this.drainTo(aCollection, Integer.MAX_VALUE);
+
+	}
+
+	/**
+	 * 
+	 * Removes at most <code>aMaxElements</code> elements from this queue and
+	 * adds them to the passed collection, <code>aCollection</code>, in
+	 * priority order. Aging is not applied while draining as every level is
+	 * visited in a single pass.
+	 * 
+	 * @param aCollection
+	 *            The collection to which elements are transferred
+	 * @param aMaxElements
+	 *            The maximum number of elements to transfer
+	 * 
+	 * @return The number of elements transferred
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int drainTo(Collection<? super E> aCollection, int aMaxElements) {
+
+		if (aCollection == null) {
+
+			throw new NullPointerException();
+
+		}
+
+		int aCount = 0;
+
+		while (aCount < aMaxElements && this.myNonEmptyLevels != 0) {
+
+			int aLevel = this.getHighestLevel();
+
+			while (aCount < aMaxElements
+					&& (this.myNonEmptyLevels & (1 << aLevel)) != 0) {
+
+				aCollection.add(this.pollLevel(aLevel));
+				aCount++;
+
+			}
+
+		}
+
+		return aCount;
+
+	}
+
+	/**
+	 * 
+	 * @param aLevel
+	 *            The priority level to query
+	 * 
+	 * @return The number of elements contained in the passed priority level,
+	 *         <code>aLevel</code>
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size(int aLevel) {
+
+		this.checkLevel(aLevel);
+
+		return this.myLevels[aLevel].size();
+
+	}
+
+	/**
+	 * 
+	 * @return The total number of elements contained in all priority levels
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size() {
+
+		return this.mySize;
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if no priority level contains an element
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isEmpty() {
+
+		return this.myNonEmptyLevels == 0;
+
+	}
+
+	/**
+	 * 
+	 * Removes all elements from all priority levels.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public void clear() {
+
+		for (QueueStack<E> aLevel : this.myLevels) {
+
+			aLevel.clear();
+
+		}
+
+		this.myNonEmptyLevels = 0;
+		this.mySize = 0;
+		this.myPollsSinceAging = 0;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of priority levels of this queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int getLevelCount() {
+
+		return this.myLevels.length;
+
+	}
+
+	/**
+	 * 
+	 * Promotes the head element of each non-empty level below the highest
+	 * non-empty level when the aging interval has elapsed.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void age() {
+
+		if (this.myAgingInterval == 0
+				|| ++this.myPollsSinceAging < this.myAgingInterval) {
+
+			return;
+
+		}
+
+		this.myPollsSinceAging = 0;
+
+		// The levels to promote are captured before promoting so that an
+		// element moves at most one level per interval
+		int aLowerLevels = this.myNonEmptyLevels
+				& ~(1 << this.getHighestLevel());
+
+		while (aLowerLevels != 0) {
+
+			int aLevel = Integer.numberOfTrailingZeros(aLowerLevels);
+			aLowerLevels &= ~(1 << aLevel);
+
+			E anElement = this.pollLevel(aLevel);
+			this.offer(anElement, aLevel - 1);
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * @return The highest non-empty priority level. This queue must not be
+	 *         empty.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private int getHighestLevel() {
+
+		return Integer.numberOfTrailingZeros(this.myNonEmptyLevels);
+
+	}
+
+	/**
+	 * 
+	 * Polls the passed non-empty level, <code>aLevel</code>, maintaining the
+	 * non-empty level bitmap and size.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private E pollLevel(int aLevel) {
+
+		QueueStack<E> aQueue = this.myLevels[aLevel];
+		E anElement = aQueue.poll();
+
+		this.mySize--;
+
+		if (aQueue.isEmpty() == true) {
+
+			this.myNonEmptyLevels &= ~(1 << aLevel);
+
+		}
+
+		return anElement;
+
+	}
+
+	private void checkLevel(int aLevel) {
+
+		if (aLevel < 0 || aLevel >= this.myLevels.length) {
+
+			throw new IllegalArgumentException(String.format(
+					"The level must be between 0 and %1$s, but was %2$s.",
+					this.myLevels.length - 1, aLevel));
+
+		}
+
+	}
+
+	// BEGIN: Object implementation
+	@Override
+	public String toString() {
+
+		return Arrays.toString(this.myLevels);
+
+	}
+	// END: Object implementation
+
+}
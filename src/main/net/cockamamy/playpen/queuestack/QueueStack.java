@@ -29,6 +29,7 @@
 package net.cockamamy.playpen.queuestack;
 
 import java.util.*;
+import java.util.function.*;
 
 /**
  * 
@@ -44,7 +45,23 @@ import java.util.*;
  * approach is tuned to be performant when a large number of sequential offer
  * operations are followed by a large number of poll operations.
  * 
- * <b>N.B.</b> This class is not thread-safe, and is unbounded.
+ * When offer and poll operations are finely interleaved, flipping every
+ * element on each change of direction is costly. Therefore, by default, the
+ * queue profiles the length of its runs of consecutive offer and poll
+ * operations and switches to the {@linkplain Strategy#TWO_STACK two stack}
+ * strategy when the runs are short, and back to the
+ * {@linkplain Strategy#FLIP flip} strategy when they are long. The decisions
+ * are reported by {@linkplain #getMetrics()}.
+ * 
+ * Optionally, the queue may be bounded by the total weight of its elements, as
+ * determined by a {@linkplain Weigher}, rather than by their number. The
+ * running weight is maintained as elements are added and removed, and an
+ * {@linkplain OverflowPolicy overflow policy} determines whether an offer that
+ * would exceed the weight budget is rejected or makes room by dropping the
+ * oldest elements.
+ * 
+ * <b>N.B.</b> This class is not thread-safe, and is unbounded unless
+ * constructed with a weight budget.
  * 
  * @author John Burwell
  * 
@@ -56,13 +73,120 @@ import java.util.*;
  */
 public final class QueueStack<E> implements Queue<E> {
 
-	private Stack<E> myOfferElements;
+	/**
+	 * 
+	 * The strategies used to distribute the elements of a queue across its
+	 * offer and poll stacks.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public enum Strategy {
+
+		/**
+		 * All elements are contained in either the offer or poll stack and are
+		 * flipped onto the other stack whenever the direction of access
+		 * changes. Best suited to long runs of offers followed by long runs of
+		 * polls.
+		 */
+		FLIP,
+
+		/**
+		 * Elements are offered onto the offer stack and polled from the poll
+		 * stack. The offer stack is only flipped onto the poll stack when the
+		 * poll stack is empty, so each element is flipped at most once
+		 * regardless of how offer and poll operations are interleaved.
+		 */
+		TWO_STACK
+
+	}
+
+	/**
+	 * 
+	 * The actions taken when an offered element would cause the total weight
+	 * of a queue to exceed its weight budget.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public enum OverflowPolicy {
+
+		/**
+		 * The offered element is rejected -- <code>offer</code> returns
+		 * <code>false</code> and <code>add</code> throws an
+		 * {@linkplain IllegalStateException}.
+		 */
+		REJECT,
+
+		/**
+		 * The oldest elements are dropped until the offered element fits. An
+		 * element heavier than the entire budget is rejected as per
+		 * {@linkplain #REJECT}.
+		 */
+		DROP_OLDEST
+
+	}
+
+	/**
+	 * The weight given to the most recent run when updating the mean run
+	 * length.
+	 */
+	private static final double RUN_LENGTH_WEIGHT = 0.125;
+
+	/**
+	 * The mean run length below which an adaptive queue switches to the
+	 * {@linkplain Strategy#TWO_STACK two stack} strategy.
+	 */
+	static final double INTERLEAVED_RUN_LENGTH = 4;
+
+	/**
+	 * The mean run length above which an adaptive queue switches back to the
+	 * {@linkplain Strategy#FLIP flip} strategy.
+	 */
+	static final double BURST_RUN_LENGTH = 64;
+
+	private ElementStack myOfferElements;
+
+	private ElementStack myPollElements;
+
+	private Strategy myStrategy;
+
+	private final boolean myAdaptive;
+
+	private boolean myOffering;
+
+	private long myRunLength;
+
+	private double myMeanRunLength;
+
+	private long myOfferCount;
+
+	private long myPollCount;
+
+	private long myFlipCount;
+
+	private long myFlippedElementCount;
+
+	private long myStrategySwitchCount;
+
+	private final Weigher<? super E> myWeigher;
+
+	private final long myWeightBudget;
+
+	private final OverflowPolicy myOverflowPolicy;
+
+	private long myWeight;
+
+	private long myEvictedCount;
+
+	private long myRejectedCount;
 
-	private Stack<E> myPollElements;
+	private boolean myDraining;
 
 	/**
 	 * 
-	 * Default constructor -- initializes an empty queue
+	 * Default constructor -- initializes an empty queue that adapts its
+	 * strategy to its observed access pattern
 	 * 
 	 * @since 1.0.0
 	 * 
@@ -71,6 +195,92 @@ public final class QueueStack<E> implements Queue<E> {
 
 		super();
 
+		this.myStrategy = Strategy.FLIP;
+		this.myAdaptive = true;
+		this.myMeanRunLength = BURST_RUN_LENGTH;
+		this.myWeigher = null;
+		this.myWeightBudget = Long.MAX_VALUE;
+		this.myOverflowPolicy = OverflowPolicy.REJECT;
+
+		this.clear();
+
+	}
+
+	/**
+	 * 
+	 * Initializes an empty queue that always uses the passed strategy,
+	 * <code>aStrategy</code>.
+	 * 
+	 * @param aStrategy
+	 *            The strategy used to distribute elements across the offer
+	 *            and poll stacks
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public QueueStack(Strategy aStrategy) {
+
+		super();
+
+		if (aStrategy == null) {
+
+			throw new IllegalArgumentException("A strategy must be specified.");
+
+		}
+
+		this.myStrategy = aStrategy;
+		this.myAdaptive = false;
+		this.myMeanRunLength = BURST_RUN_LENGTH;
+		this.myWeigher = null;
+		this.myWeightBudget = Long.MAX_VALUE;
+		this.myOverflowPolicy = OverflowPolicy.REJECT;
+
+		this.clear();
+
+	}
+
+	/**
+	 * 
+	 * Initializes an empty, adaptive queue bounded by the total weight of its
+	 * elements.
+	 * 
+	 * @param aWeigher
+	 *            Determines the weight of each element
+	 * @param aWeightBudget
+	 *            The maximum total weight of the elements of the queue
+	 * @param anOverflowPolicy
+	 *            The action taken when an offered element does not fit within
+	 *            the weight budget
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public QueueStack(Weigher<? super E> aWeigher, long aWeightBudget,
+			OverflowPolicy anOverflowPolicy) {
+
+		super();
+
+		if (aWeigher == null || anOverflowPolicy == null) {
+
+			throw new IllegalArgumentException(
+					"A weigher and overflow policy must be specified.");
+
+		}
+
+		if (aWeightBudget < 0) {
+
+			throw new IllegalArgumentException(
+					"The weight budget can not be negative.");
+
+		}
+
+		this.myStrategy = Strategy.FLIP;
+		this.myAdaptive = true;
+		this.myMeanRunLength = BURST_RUN_LENGTH;
+		this.myWeigher = aWeigher;
+		this.myWeightBudget = aWeightBudget;
+		this.myOverflowPolicy = anOverflowPolicy;
+
 		this.clear();
 
 	}
@@ -99,15 +309,169 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public E element() {
 
-		this.flipToPoll();
+		E anElement = this.peek();
 
-		if (this.myPollElements.isEmpty() == true) {
+		if (anElement == null) {
 
 			throw new NoSuchElementException();
 
 		}
 
-		return this.myOfferElements.peek();
+		return anElement;
+
+	}
+
+	/**
+	 * 
+	 * @return The strategy currently used to distribute elements across the
+	 *         offer and poll stacks
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public Strategy getStrategy() {
+
+		return this.myStrategy;
+
+	}
+
+	/**
+	 * 
+	 * @return The maximum total weight of the elements of this queue --
+	 *         {@linkplain Long#MAX_VALUE} if it has no weigher
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getWeightBudget() {
+
+		return this.myWeightBudget;
+
+	}
+
+	/**
+	 * 
+	 * @return A snapshot of the access profile and strategy decisions of this
+	 *         queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public QueueStackMetrics getMetrics() {
+
+		return new QueueStackMetrics(this.myStrategy, this.myAdaptive,
+				this.myOfferCount, this.myPollCount, this.myFlipCount,
+				this.myFlippedElementCount, this.myMeanRunLength,
+				this.myStrategySwitchCount, this.myWeight,
+				this.myEvictedCount, this.myRejectedCount);
+
+	}
+
+	/**
+	 * 
+	 * @param anElement
+	 *            The element to weigh
+	 * 
+	 * @return The weight of the passed element, <code>anElement</code>, or
+	 *         <code>0</code> if this queue has no weigher
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private long weigh(E anElement) {
+
+		if (this.myWeigher == null) {
+
+			return 0;
+
+		}
+
+		long aWeight = this.myWeigher.weigh(anElement);
+
+		if (aWeight < 0) {
+
+			throw new IllegalArgumentException(
+					"The weight of an element can not be negative.");
+
+		}
+
+		return aWeight;
+
+	}
+
+	/**
+	 * 
+	 * Recalculates the total weight of the elements after a bulk removal.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void reweigh() {
+
+		if (this.myWeigher == null) {
+
+			return;
+
+		}
+
+		long aWeight = 0;
+
+		for (Cursor aCursor = this.cursor(); aCursor.hasNext() == true;) {
+
+			aWeight += this.weigh(aCursor.next());
+
+		}
+
+		this.myWeight = aWeight;
+
+	}
+
+	/**
+	 * 
+	 * Drops the oldest elements until at least the passed weight,
+	 * <code>anExcess</code>, has been removed. Under the two stack strategy,
+	 * the elements of the poll stack are older than those of the offer stack,
+	 * and are dropped first. The oldest elements of the offer stack are at its
+	 * bottom, and are removed as a single range.
+	 * 
+	 * @param anExcess
+	 *            The weight to remove, which must not exceed the total weight
+	 *            of the elements
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void evict(long anExcess) {
+
+		if (this.myPollElements != null) {
+
+			while (anExcess > 0 && this.myPollElements.isEmpty() == false) {
+
+				long aWeight = this.weigh(this.myPollElements.pop());
+				this.myWeight -= aWeight;
+				anExcess -= aWeight;
+				this.myEvictedCount++;
+
+			}
+
+		}
+
+		if (anExcess > 0 && this.myOfferElements != null) {
+
+			int aCount = 0;
+
+			while (anExcess > 0 && aCount < this.myOfferElements.size()) {
+
+				long aWeight = this.weigh(this.myOfferElements.get(aCount++));
+				this.myWeight -= aWeight;
+				anExcess -= aWeight;
+
+			}
+
+			this.myOfferElements.subList(0, aCount).clear();
+			this.myEvictedCount += aCount;
+
+		}
 
 	}
 
@@ -126,11 +490,14 @@ public final class QueueStack<E> implements Queue<E> {
 	 * @since 1.0.0
 	 * 
 	 */
-	private Stack<E> flip(Stack<E> aStack) {
+	private ElementStack flip(ElementStack aStack) {
+
+		ElementStack aFlippedStack = new ElementStack();
 
-		Stack<E> aFlippedStack = new Stack<E>();
+		if (aStack != null && aStack.isEmpty() == false) {
 
-		if (aStack != null) {
+			this.myFlipCount++;
+			this.myFlippedElementCount += aStack.size();
 
 			while (aStack.isEmpty() == false) {
 
@@ -149,14 +516,33 @@ public final class QueueStack<E> implements Queue<E> {
 	 * Switches the active element stack to offer by popping all of the elements
 	 * off of the poll stack and onto the offer stack.
 	 * 
+	 * <b>N.B.</b> The <code>myOfferElements</code> is guaranteed to be
+	 * non-null and <code>myPollElements</code> null following the execution of
+	 * this method.
+	 * 
 	 * @since 1.0.0
 	 * 
 	 */
 	private void flipToOffer() {
 
-		if (this.myOfferElements == null) {
+		if (this.myPollElements != null
+				&& this.myPollElements.isEmpty() == false) {
+
+			// Under the two stack strategy, the offer stack may also contain
+			// elements -- they are newer than those of the poll stack
+			ElementStack anOfferElements = flip(this.myPollElements);
+
+			if (this.myOfferElements != null) {
+
+				anOfferElements.addAll(this.myOfferElements);
 
-			this.myOfferElements = flip(this.myPollElements);
+			}
+
+			this.myOfferElements = anOfferElements;
+
+		} else if (this.myOfferElements == null) {
+
+			this.myOfferElements = new ElementStack();
 
 		}
 
@@ -170,16 +556,32 @@ public final class QueueStack<E> implements Queue<E> {
 	 * off of the offer stack and onto the poll stack.
 	 * 
 	 * <b>N.B.</b> The <code>myPollElements</code> is guaranteed to be non-null
-	 * following the execution of this method.
+	 * and <code>myOfferElements</code> null following the execution of this
+	 * method.
 	 * 
 	 * @since 1.0.0
 	 * 
 	 */
 	private void flipToPoll() {
 
-		if (this.myPollElements == null) {
+		if (this.myOfferElements != null
+				&& this.myOfferElements.isEmpty() == false) {
+
+			// Under the two stack strategy, the poll stack may also contain
+			// elements -- they are older than those of the offer stack
+			ElementStack aPollElements = flip(this.myOfferElements);
+
+			if (this.myPollElements != null) {
+
+				aPollElements.addAll(this.myPollElements);
+
+			}
+
+			this.myPollElements = aPollElements;
 
-			this.myPollElements = flip(this.myOfferElements);
+		} else if (this.myPollElements == null) {
+
+			this.myPollElements = new ElementStack();
 
 		}
 
@@ -189,30 +591,312 @@ public final class QueueStack<E> implements Queue<E> {
 
 	/**
 	 * 
-	 * The stack that current contains the elements of the queue. If both stacks
-	 * are null, then an empty queue is returned. This method should only be
-	 * used operations that do not require correct ordering of elements.
+	 * Prepares the stacks for an offer operation per the current strategy.
 	 * 
-	 * @return The stack that currently contains the elements of this queue.
+	 * <b>N.B.</b> The <code>myOfferElements</code> is guaranteed to be
+	 * non-null following the execution of this method.
 	 * 
-	 * @since 1.0.0
+	 * @since 1.1.0
+	 * 
+	 */
+	private void prepareOffer() {
+
+		this.recordAccess(true);
+
+		if (this.myStrategy == Strategy.FLIP) {
+
+			this.flipToOffer();
+
+		} else if (this.myOfferElements == null) {
+
+			this.myOfferElements = new ElementStack();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Prepares the stacks for a poll (or peek) operation per the current
+	 * strategy. Under the two stack strategy, the offer stack is only flipped
+	 * onto the poll stack when the poll stack is empty.
+	 * 
+	 * <b>N.B.</b> The <code>myPollElements</code> is guaranteed to be non-null
+	 * following the execution of this method.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void preparePoll() {
+
+		if (this.myStrategy == Strategy.FLIP
+				|| this.myPollElements == null
+				|| this.myPollElements.isEmpty() == true) {
+
+			this.flipToPoll();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Records an offer or poll operation in the access profile. When the
+	 * direction of access changes, the length of the completed run is folded
+	 * into the mean run length and, if this queue is adaptive, the strategy
+	 * is re-evaluated.
+	 * 
+	 * @param anOffer
+	 *            <code>true</code> if the operation is an offer
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void recordAccess(boolean anOffer) {
+
+		if (anOffer == true) {
+
+			this.myOfferCount++;
+
+		} else {
+
+			this.myPollCount++;
+
+		}
+
+		if (anOffer == this.myOffering || this.myRunLength == 0) {
+
+			this.myOffering = anOffer;
+			this.myRunLength++;
+			return;
+
+		}
+
+		this.myMeanRunLength += (this.myRunLength - this.myMeanRunLength)
+				* RUN_LENGTH_WEIGHT;
+		this.myOffering = anOffer;
+		this.myRunLength = 1;
+
+		if (this.myAdaptive == false) {
+
+			return;
+
+		}
+
+		if (this.myStrategy == Strategy.FLIP
+				&& this.myMeanRunLength < INTERLEAVED_RUN_LENGTH) {
+
+			this.myStrategy = Strategy.TWO_STACK;
+			this.myStrategySwitchCount++;
+
+		} else if (this.myStrategy == Strategy.TWO_STACK
+				&& this.myMeanRunLength > BURST_RUN_LENGTH) {
+
+			this.myStrategy = Strategy.FLIP;
+			this.myStrategySwitchCount++;
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Copies the elements of this queue, from head to tail, into the passed
+	 * array, <code>anArray</code>, without flipping. Under the two stack
+	 * strategy, the elements of the poll stack, from its top, precede those of
+	 * the offer stack, from its bottom.
+	 * 
+	 * @param anArray
+	 *            An array at least as long as this queue
+	 * 
+	 * @since 1.1.0
 	 * 
 	 */
-	private Stack<E> getElements() {
+	private void copyElements(Object[] anArray) {
+
+		int anIndex = 0;
+
+		if (this.myPollElements != null) {
+
+			for (int i = this.myPollElements.getCount() - 1; i >= 0; i--) {
+
+				anArray[anIndex++] = this.myPollElements.getElement(i);
+
+			}
+
+		}
 
 		if (this.myOfferElements != null) {
 
-			return this.myOfferElements;
+			for (int i = 0; i < this.myOfferElements.getCount(); i++) {
+
+				anArray[anIndex++] = this.myOfferElements.getElement(i);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Removes all of the elements of this queue, passing each, in order, to
+	 * the passed consumer, <code>aConsumer</code>.
+	 * 
+	 * @see #drain(Consumer, int)
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int drain(Consumer<? super E> aConsumer) {
+
+		return this.drain(aConsumer, Integer.MAX_VALUE);
+
+	}
+
+	/**
+	 * 
+	 * Removes up to the passed number of elements, <code>aMaxElements</code>,
+	 * from the head of this queue, passing each, in order, to the passed
+	 * consumer, <code>aConsumer</code>. Rather than flipping, the backing
+	 * arrays of the stacks are walked directly -- the poll stack from its top
+	 * and then the offer stack from its bottom -- clearing each slot as it is
+	 * consumed.
+	 * 
+	 * Under the {@linkplain Strategy#TWO_STACK two stack} strategy, when the
+	 * elements left in the offer stack would outnumber those drained from it,
+	 * the offer stack is first flipped onto the poll stack, so that repeated
+	 * partial drains do not repeatedly shift the remaining elements. Under the
+	 * {@linkplain Strategy#FLIP flip} strategy, the next offer would flip them
+	 * all back, so the offer stack is always drained from its bottom and the
+	 * remaining elements are shifted down in place -- interleaved offers and
+	 * partial drains neither flip nor allocate.
+	 * 
+	 * <b>N.B.</b> The consumer must not access this queue. An attempt by the
+	 * consumer to modify the queue fails with a
+	 * {@linkplain ConcurrentModificationException} before the queue is
+	 * changed, leaving the undrained elements intact.
+	 * 
+	 * @return The number of elements drained
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int drain(Consumer<? super E> aConsumer, int aMaxElements) {
+
+		if (aConsumer == null) {
+
+			throw new NullPointerException();
+
+		}
+
+		if (aMaxElements < 0) {
+
+			throw new IllegalArgumentException(
+					"The maximum number of elements must not be negative.");
 
 		}
 
-		if (this.myPollElements != null) {
+		this.checkNotDraining();
+
+		int aSize = this.size();
+		this.myDraining = true;
+
+		try {
+
+			if (this.myPollElements != null) {
+
+				this.myPollElements.drainTop(aConsumer, aMaxElements);
+
+			}
+
+			int aRemaining = aMaxElements - (aSize - this.size());
+
+			if (this.myOfferElements != null && aRemaining > 0) {
+
+				if (this.myStrategy == Strategy.TWO_STACK
+						&& this.myOfferElements.getCount() - aRemaining > aRemaining) {
+
+					this.flipToPoll();
+					this.myPollElements.drainTop(aConsumer, aRemaining);
+
+				} else {
+
+					this.myOfferElements.drainBottom(aConsumer, aRemaining);
+
+				}
+
+			}
+
+		} finally {
+
+			this.myDraining = false;
+			this.recordDrain(aSize - this.size());
+
+		}
+
+		return aSize - this.size();
+
+	}
+
+	/**
+	 * 
+	 * @return A cursor positioned at the head of this queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public Cursor cursor() {
+
+		Cursor aCursor = new Cursor();
+		aCursor.reset();
+
+		return aCursor;
+
+	}
+
+	/**
+	 * 
+	 * Prevents the consumer of a drain from modifying this queue while its
+	 * stacks are partially drained.
+	 * 
+	 * @throws ConcurrentModificationException
+	 *             If this queue is being drained
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void checkNotDraining() {
+
+		if (this.myDraining == true) {
+
+			throw new ConcurrentModificationException(
+					"The queue can not be modified while it is drained.");
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Records a drain of the passed number of elements,
+	 * <code>aDrainedCount</code>, in the access profile as a single run of
+	 * polls.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private void recordDrain(int aDrainedCount) {
+
+		if (aDrainedCount <= 0) {
 
-			return this.myPollElements;
+			return;
 
 		}
 
-		return new Stack<E>();
+		this.recordAccess(false);
+		this.myPollCount += aDrainedCount - 1;
+		this.myRunLength += aDrainedCount - 1;
 
 	}
 
@@ -224,6 +908,8 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public boolean offer(E anObject) {
 
+		this.checkNotDraining();
+
 		if (anObject == null) {
 
 			throw new IllegalArgumentException(
@@ -231,9 +917,47 @@ public final class QueueStack<E> implements Queue<E> {
 
 		}
 
-		this.flipToOffer();
+		return this.admit(anObject, this.weigh(anObject));
+
+	}
+
+	/**
+	 * 
+	 * Inserts the passed element, <code>anObject</code>, if its weight,
+	 * <code>aWeight</code>, fits within the weight budget per the overflow
+	 * policy. The weight is computed once by the caller and used for both the
+	 * admission check and the accounting.
+	 * 
+	 * @param anObject
+	 *            The non-null element to insert
+	 * @param aWeight
+	 *            The weight of <code>anObject</code>
+	 * 
+	 * @return <code>true</code> if the element was inserted
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private boolean admit(E anObject, long aWeight) {
+
+		if (aWeight > this.myWeightBudget - this.myWeight) {
+
+			if (this.myOverflowPolicy == OverflowPolicy.REJECT
+					|| aWeight > this.myWeightBudget) {
+
+				this.myRejectedCount++;
+				return false;
+
+			}
+
+			this.evict(aWeight - (this.myWeightBudget - this.myWeight));
+
+		}
+
+		this.prepareOffer();
 
 		this.myOfferElements.push(anObject);
+		this.myWeight += aWeight;
 
 		return true;
 
@@ -246,7 +970,15 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public E peek() {
 
-		this.flipToPoll();
+		this.checkNotDraining();
+
+		this.preparePoll();
+
+		if (this.myPollElements.isEmpty() == true) {
+
+			return null;
+
+		}
 
 		return this.myPollElements.peek();
 
@@ -259,12 +991,17 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public E poll() {
 
-		this.flipToPoll();
+		this.checkNotDraining();
 
-		if (this.myPollElements != null
-				&& this.myPollElements.isEmpty() == false) {
+		this.recordAccess(false);
+		this.preparePoll();
+
+		if (this.myPollElements.isEmpty() == false) {
 
-			return this.myPollElements.pop();
+			E anElement = this.myPollElements.pop();
+			this.myWeight -= this.weigh(anElement);
+
+			return anElement;
 
 		}
 
@@ -279,7 +1016,10 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public E remove() {
 
-		this.flipToPoll();
+		this.checkNotDraining();
+
+		this.recordAccess(false);
+		this.preparePoll();
 
 		if (this.myPollElements.isEmpty() == true) {
 
@@ -287,7 +1027,10 @@ public final class QueueStack<E> implements Queue<E> {
 
 		}
 
-		return this.myPollElements.pop();
+		E anElement = this.myPollElements.pop();
+		this.myWeight -= this.weigh(anElement);
+
+		return anElement;
 
 	}
 
@@ -298,7 +1041,14 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public boolean add(E anObject) {
 
-		return this.offer(anObject);
+		if (this.offer(anObject) == false) {
+
+			throw new IllegalStateException(
+					"The element exceeds the weight budget of the queue.");
+
+		}
+
+		return true;
 
 	}
 
@@ -309,21 +1059,19 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public boolean addAll(Collection<? extends E> aCollection) {
 
-		boolean aResult = true;
+		boolean aChanged = false;
 
 		for (E anElement : aCollection) {
 
-			aResult = this.offer(anElement);
+			if (this.add(anElement) == true) {
 
-			if (aResult == false) {
-
-				break;
+				aChanged = true;
 
 			}
 
 		}
 
-		return aResult;
+		return aChanged;
 
 	}
 
@@ -334,9 +1082,11 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public void clear() {
 
-		this.getElements().clear();
-		this.myOfferElements = new Stack<E>();
+		this.checkNotDraining();
+
+		this.myOfferElements = new ElementStack();
 		this.myPollElements = null;
+		this.myWeight = 0;
 
 	}
 
@@ -347,7 +1097,10 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public boolean contains(Object anObject) {
 
-		return this.getElements().contains(anObject);
+		return (this.myPollElements != null && this.myPollElements
+				.contains(anObject) == true)
+				|| (this.myOfferElements != null && this.myOfferElements
+						.contains(anObject) == true);
 
 	}
 
@@ -358,7 +1111,17 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public boolean containsAll(Collection<?> aCollection) {
 
-		return this.getElements().containsAll(aCollection);
+		for (Object anObject : aCollection) {
+
+			if (this.contains(anObject) == false) {
+
+				return false;
+
+			}
+
+		}
+
+		return true;
 
 	}
 
@@ -369,7 +1132,7 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public boolean isEmpty() {
 
-		return this.getElements().isEmpty();
+		return this.size() == 0;
 
 	}
 
@@ -380,9 +1143,7 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public Iterator<E> iterator() {
 
-		this.flipToPoll();
-
-		return this.myPollElements.iterator();
+		return this.cursor();
 
 	}
 
@@ -393,7 +1154,39 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public boolean remove(Object anObject) {
 
-		return this.getElements().remove(anObject);
+		this.checkNotDraining();
+
+		// The first occurrence is the one nearest the top of the poll stack
+		// or, failing that, the bottom of the offer stack
+		if (this.myPollElements != null) {
+
+			int anIndex = this.myPollElements.lastIndexOf(anObject);
+
+			if (anIndex >= 0) {
+
+				this.myWeight -= this.weigh(this.myPollElements
+						.remove(anIndex));
+				return true;
+
+			}
+
+		}
+
+		if (this.myOfferElements != null) {
+
+			int anIndex = this.myOfferElements.indexOf(anObject);
+
+			if (anIndex >= 0) {
+
+				this.myWeight -= this.weigh(this.myOfferElements
+						.remove(anIndex));
+				return true;
+
+			}
+
+		}
+
+		return false;
 
 	}
 
@@ -404,7 +1197,29 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public boolean removeAll(Collection<?> aCollection) {
 
-		return this.getElements().removeAll(aCollection);
+		this.checkNotDraining();
+
+		boolean aResult = false;
+
+		if (this.myPollElements != null) {
+
+			aResult |= this.myPollElements.removeAll(aCollection);
+
+		}
+
+		if (this.myOfferElements != null) {
+
+			aResult |= this.myOfferElements.removeAll(aCollection);
+
+		}
+
+		if (aResult == true) {
+
+			this.reweigh();
+
+		}
+
+		return aResult;
 
 	}
 
@@ -415,7 +1230,29 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public boolean retainAll(Collection<?> aCollection) {
 
-		return this.getElements().retainAll(aCollection);
+		this.checkNotDraining();
+
+		boolean aResult = false;
+
+		if (this.myPollElements != null) {
+
+			aResult |= this.myPollElements.retainAll(aCollection);
+
+		}
+
+		if (this.myOfferElements != null) {
+
+			aResult |= this.myOfferElements.retainAll(aCollection);
+
+		}
+
+		if (aResult == true) {
+
+			this.reweigh();
+
+		}
+
+		return aResult;
 
 	}
 
@@ -426,7 +1263,21 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public int size() {
 
-		return this.getElements().size();
+		int aSize = 0;
+
+		if (this.myOfferElements != null) {
+
+			aSize += this.myOfferElements.size();
+
+		}
+
+		if (this.myPollElements != null) {
+
+			aSize += this.myPollElements.size();
+
+		}
+
+		return aSize;
 
 	}
 
@@ -437,9 +1288,10 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public Object[] toArray() {
 
-		this.flipToOffer();
+		Object[] anArray = new Object[this.size()];
+		this.copyElements(anArray);
 
-		return this.myOfferElements.toArray();
+		return anArray;
 
 	}
 
@@ -450,9 +1302,24 @@ public final class QueueStack<E> implements Queue<E> {
 	 */
 	public <T> T[] toArray(T[] anArray) {
 
-		this.flipToOffer();
+		int aSize = this.size();
+
+		if (anArray.length < aSize) {
+
+			// Allocates an array of the same runtime type
+			anArray = Arrays.copyOf(anArray, aSize);
+
+		}
+
+		this.copyElements(anArray);
+
+		if (anArray.length > aSize) {
+
+			anArray[aSize] = null;
+
+		}
 
-		return this.myOfferElements.toArray(anArray);
+		return anArray;
 
 	}
 
@@ -477,9 +1344,20 @@ public final class QueueStack<E> implements Queue<E> {
 	@Override
 	public int hashCode() {
 
+		// The list hash code of the elements, from head to tail, so that
+		// equal queues have equal hash codes regardless of their layout
+		int anElementsHashCode = 1;
+
+		for (Cursor aCursor = this.cursor(); aCursor.hasNext() == true;) {
+
+			anElementsHashCode = 31 * anElementsHashCode
+					+ aCursor.next().hashCode();
+
+		}
+
 		int aHashCode = 37;
 
-		aHashCode += (aHashCode * 17) * this.getElements().hashCode();
+		aHashCode += (aHashCode * 17) * anElementsHashCode;
 
 		return aHashCode;
 
@@ -488,9 +1366,333 @@ public final class QueueStack<E> implements Queue<E> {
 	@Override
 	public String toString() {
 
-		return this.getElements().toString();
+		return Arrays.toString(this.toArray());
 
 	}
 	// END: Object implementation
 
+	/**
+	 * 
+	 * A stack that exposes its backing array so that it can be traversed and
+	 * drained without the synchronization, bounds checks and copying of the
+	 * {@linkplain Vector} methods.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	@SuppressWarnings("serial")
+	private final class ElementStack extends Stack<E> {
+
+		/**
+		 * 
+		 * @return The number of elements, without synchronization
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		private int getCount() {
+
+			return this.elementCount;
+
+		}
+
+		/**
+		 * 
+		 * @return The element at the passed index, <code>anIndex</code>,
+		 *         counted from the bottom of the stack, without
+		 *         synchronization or bounds checking
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		@SuppressWarnings("unchecked")
+		private E getElement(int anIndex) {
+
+			return (E) this.elementData[anIndex];
+
+		}
+
+		/**
+		 * 
+		 * @return The number of structural modifications of the stack
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		private int getModCount() {
+
+			return this.modCount;
+
+		}
+
+		/**
+		 * 
+		 * Removes up to the passed number of elements, <code>aMaxElements</code>,
+		 * from the top of the stack, passing each to the passed consumer,
+		 * <code>aConsumer</code>.
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		@SuppressWarnings("unchecked")
+		private void drainTop(Consumer<? super E> aConsumer, int aMaxElements) {
+
+			int anExpectedModCount = ++this.modCount;
+
+			for (int i = 0; i < aMaxElements && this.elementCount > 0; i++) {
+
+				int anIndex = --this.elementCount;
+				E anElement = (E) this.elementData[anIndex];
+				this.elementData[anIndex] = null;
+				QueueStack.this.myWeight -= QueueStack.this.weigh(anElement);
+
+				aConsumer.accept(anElement);
+
+				if (this.modCount != anExpectedModCount) {
+
+					throw new ConcurrentModificationException();
+
+				}
+
+			}
+
+		}
+
+		/**
+		 * 
+		 * Removes up to the passed number of elements, <code>aMaxElements</code>,
+		 * from the bottom of the stack, passing each to the passed consumer,
+		 * <code>aConsumer</code>. The remaining elements are shifted down once
+		 * the drain completes.
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		@SuppressWarnings("unchecked")
+		private void drainBottom(Consumer<? super E> aConsumer,
+				int aMaxElements) {
+
+			int aCount = Math.min(aMaxElements, this.elementCount);
+			int anExpectedModCount = ++this.modCount;
+			int anIndex = 0;
+
+			try {
+
+				while (anIndex < aCount) {
+
+					E anElement = (E) this.elementData[anIndex];
+					this.elementData[anIndex] = null;
+					anIndex++;
+					QueueStack.this.myWeight -= QueueStack.this
+							.weigh(anElement);
+
+					aConsumer.accept(anElement);
+
+					if (this.modCount != anExpectedModCount) {
+
+						throw new ConcurrentModificationException();
+
+					}
+
+				}
+
+			} finally {
+
+				// Should the stack nonetheless have been modified, its layout
+				// is unknown and it is left as is
+				if (this.modCount == anExpectedModCount && anIndex > 0) {
+
+					int aRemaining = this.elementCount - anIndex;
+					System.arraycopy(this.elementData, anIndex,
+							this.elementData, 0, aRemaining);
+					Arrays.fill(this.elementData, aRemaining,
+							this.elementCount, null);
+					this.elementCount = aRemaining;
+
+				}
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * A traversal of the elements of a queue, from head to tail, that neither
+	 * flips the stacks nor allocates. A cursor is reusable --
+	 * {@linkplain #reset()} repositions it at the head of the queue, so a
+	 * single cursor may be used to traverse the queue repeatedly.
+	 * 
+	 * <b>N.B.</b> A modification of the queue other than through
+	 * {@linkplain #remove()} invalidates the cursor until it is reset, and is
+	 * reported by a {@linkplain ConcurrentModificationException}.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public final class Cursor implements Iterator<E> {
+
+		private ElementStack myPollStack;
+
+		private ElementStack myOfferStack;
+
+		private int myPollModCount;
+
+		private int myOfferModCount;
+
+		private int myPollIndex;
+
+		private int myOfferIndex;
+
+		/**
+		 * The stack holding the element last returned by <code>next</code>,
+		 * or <code>null</code> if it may not be removed
+		 */
+		private ElementStack myLastStack;
+
+		private int myLastIndex;
+
+		private Cursor() {
+
+			super();
+
+		}
+
+		/**
+		 * 
+		 * Positions this cursor at the head of the queue.
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		public void reset() {
+
+			this.myPollStack = QueueStack.this.myPollElements;
+			this.myOfferStack = QueueStack.this.myOfferElements;
+			this.myPollIndex = -1;
+			this.myOfferIndex = 0;
+			this.myLastStack = null;
+
+			if (this.myPollStack != null) {
+
+				this.myPollModCount = this.myPollStack.getModCount();
+				this.myPollIndex = this.myPollStack.getCount() - 1;
+
+			}
+
+			if (this.myOfferStack != null) {
+
+				this.myOfferModCount = this.myOfferStack.getModCount();
+
+			}
+
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#hasNext()
+		 */
+		public boolean hasNext() {
+
+			this.checkModification();
+
+			return this.myPollIndex >= 0
+					|| (this.myOfferStack != null && this.myOfferIndex < this.myOfferStack
+							.getCount());
+
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#next()
+		 */
+		public E next() {
+
+			if (this.hasNext() == false) {
+
+				throw new NoSuchElementException();
+
+			}
+
+			// The poll stack holds the older elements, top first
+			if (this.myPollIndex >= 0) {
+
+				this.myLastStack = this.myPollStack;
+				this.myLastIndex = this.myPollIndex--;
+
+			} else {
+
+				this.myLastStack = this.myOfferStack;
+				this.myLastIndex = this.myOfferIndex++;
+
+			}
+
+			return this.myLastStack.getElement(this.myLastIndex);
+
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.Iterator#remove()
+		 */
+		public void remove() {
+
+			if (this.myLastStack == null) {
+
+				throw new IllegalStateException();
+
+			}
+
+			this.checkModification();
+			QueueStack.this.checkNotDraining();
+
+			E anElement = this.myLastStack.remove(this.myLastIndex);
+			QueueStack.this.myWeight -= QueueStack.this.weigh(anElement);
+
+			// The poll stack is traversed downwards, so only the offer index
+			// is affected by the shift of the elements above the removed one
+			if (this.myLastStack == this.myOfferStack) {
+
+				this.myOfferIndex--;
+				this.myOfferModCount = this.myOfferStack.getModCount();
+
+			} else {
+
+				this.myPollModCount = this.myPollStack.getModCount();
+
+			}
+
+			this.myLastStack = null;
+
+		}
+
+		/**
+		 * 
+		 * Verifies that the queue has not been modified since this cursor
+		 * was reset.
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		private void checkModification() {
+
+			if (this.myPollStack != QueueStack.this.myPollElements
+					|| this.myOfferStack != QueueStack.this.myOfferElements
+					|| (this.myPollStack != null && this.myPollStack
+							.getModCount() != this.myPollModCount)
+					|| (this.myOfferStack != null && this.myOfferStack
+							.getModCount() != this.myOfferModCount)) {
+
+				throw new ConcurrentModificationException();
+
+			}
+
+		}
+
+	}
+
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+/**
+ * 
+ * A point-in-time snapshot of the access profile and internal decisions of a
+ * {@linkplain QueueStack}, as returned by {@linkplain QueueStack#getMetrics()}.
+ * 
+ * @author John Burwell
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class QueueStackMetrics {
+
+	private final QueueStack.Strategy myStrategy;
+
+	private final boolean myAdaptive;
+
+	private final long myOfferCount;
+
+	private final long myPollCount;
+
+	private final long myFlipCount;
+
+	private final long myFlippedElementCount;
+
+	private final double myMeanRunLength;
+
+	private final long myStrategySwitchCount;
+
+	private final long myWeight;
+
+	private final long myEvictedCount;
+
+	private final long myRejectedCount;
+
+	QueueStackMetrics(QueueStack.Strategy aStrategy, boolean anAdaptive,
+			long anOfferCount, long aPollCount, long aFlipCount,
+			long aFlippedElementCount, double aMeanRunLength,
+			long aStrategySwitchCount, long aWeight, long anEvictedCount,
+			long aRejectedCount) {
+
+		super();
+
+		this.myStrategy = aStrategy;
+		this.myAdaptive = anAdaptive;
+		this.myOfferCount = anOfferCount;
+		this.myPollCount = aPollCount;
+		this.myFlipCount = aFlipCount;
+		this.myFlippedElementCount = aFlippedElementCount;
+		this.myMeanRunLength = aMeanRunLength;
+		this.myStrategySwitchCount = aStrategySwitchCount;
+		this.myWeight = aWeight;
+		this.myEvictedCount = anEvictedCount;
+		this.myRejectedCount = aRejectedCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The strategy in use when this snapshot was taken
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public QueueStack.Strategy getStrategy() {
+
+		return this.myStrategy;
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if the queue selects its strategy based on its
+	 *         observed access pattern
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isAdaptive() {
+
+		return this.myAdaptive;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements offered
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getOfferCount() {
+
+		return this.myOfferCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of poll operations performed, including those of an
+	 *         empty queue
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getPollCount() {
+
+		return this.myPollCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of times the elements of one stack were flipped onto
+	 *         the other
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getFlipCount() {
+
+		return this.myFlipCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The total number of elements moved by flips -- the cost paid for
+	 *         switching between offering and polling
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getFlippedElementCount() {
+
+		return this.myFlippedElementCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The exponentially weighted mean length of the runs of
+	 *         consecutive offer or poll operations
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public double getMeanRunLength() {
+
+		return this.myMeanRunLength;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of times the queue switched strategies
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getStrategySwitchCount() {
+
+		return this.myStrategySwitchCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The total weight of the elements of the queue, or
+	 *         <code>0</code> if it has no weigher
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getWeight() {
+
+		return this.myWeight;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements dropped to make room within the weight
+	 *         budget
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getEvictedCount() {
+
+		return this.myEvictedCount;
+
+	}
+
+	/**
+	 * 
+	 * @return The number of offered elements rejected for exceeding the
+	 *         weight budget
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public long getRejectedCount() {
+
+		return this.myRejectedCount;
+
+	}
+
+	// BEGIN: Object implementation
+	@Override
+	public String toString() {
+
+		return String
+				.format("QueueStackMetrics[strategy=%1$s, adaptive=%2$s, offers=%3$s, polls=%4$s, flips=%5$s, flippedElements=%6$s, meanRunLength=%7$.2f, strategySwitches=%8$s, weight=%9$s, evicted=%10$s, rejected=%11$s]",
+						this.myStrategy, this.myAdaptive, this.myOfferCount,
+						this.myPollCount, this.myFlipCount,
+						this.myFlippedElementCount, this.myMeanRunLength,
+						this.myStrategySwitchCount, this.myWeight,
+						this.myEvictedCount, this.myRejectedCount);
+
+	}
+	// END: Object implementation
+
+}
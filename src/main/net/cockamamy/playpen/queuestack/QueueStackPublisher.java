@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * 
+ * A {@linkplain Flow.Publisher} that buffers offered elements in a
+ * {@linkplain QueueStack} and delivers them to its subscriber honoring the
+ * demand signaled through {@linkplain Flow.Subscription#request(long)}.
+ * Elements are polled from the queue in batches of at most the batch size (or
+ * the outstanding demand, if smaller) so that the lock protecting the queue is
+ * acquired once per batch rather than once per element. Delivery is
+ * serialized by a drain loop -- whichever thread offers an element or
+ * requests demand performs the delivery, and concurrent or reentrant calls
+ * simply mark additional work for that loop.
+ * 
+ * Only a single subscriber is supported. Subsequent subscribers are
+ * immediately signaled an {@linkplain IllegalStateException}. Once the
+ * subscriber cancels its subscription, the buffered elements are discarded and
+ * subsequent offers are rejected.
+ * 
+ * <b>N.B.</b> This class is thread-safe, and is unbounded.
+ * 
+ * @author John Burwell
+ * 
+ * @param <E>
+ *            The type of element published
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class QueueStackPublisher<E> implements Flow.Publisher<E> {
+
+	private static final int DEFAULT_BATCH_SIZE = 64;
+
+	private final Lock myLock;
+
+	private final QueueStack<E> myQueue;
+
+	private final Object[] myBatch;
+
+	private final AtomicReference<QueueStackSubscription> mySubscription;
+
+	private boolean myClosed;
+
+	/**
+	 * 
+	 * Default constructor -- initializes a publisher with an empty queue and
+	 * the default batch size
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public QueueStackPublisher() {
+
+		this(DEFAULT_BATCH_SIZE);
+
+	}
+
+	/**
+	 * 
+	 * @param aBatchSize
+	 *            The maximum number of elements polled from the queue per
+	 *            acquisition of its lock
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public QueueStackPublisher(int aBatchSize) {
+
+		super();
+
+		if (aBatchSize < 1) {
+
+			throw new IllegalArgumentException(
+					"The batch size must be greater than zero.");
+
+		}
+
+		this.myLock = new ReentrantLock();
+		this.myQueue = new QueueStack<E>();
+		this.myBatch = new Object[aBatchSize];
+		this.mySubscription = new AtomicReference<QueueStackSubscription>();
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Flow.Publisher#subscribe(java.util.concurrent.Flow.Subscriber)
+	 */
+	public void subscribe(Flow.Subscriber<? super E> aSubscriber) {
+
+		if (aSubscriber == null) {
+
+			throw new NullPointerException();
+
+		}
+
+		QueueStackSubscription aSubscription = new QueueStackSubscription(
+				aSubscriber);
+
+		if (this.mySubscription.compareAndSet(null, aSubscription) == false) {
+
+			aSubscriber.onSubscribe(new Flow.Subscription() {
+
+				public void request(long aCount) {
+
+					// Nothing will ever be delivered to a rejected subscriber
+
+				}
+
+				public void cancel() {
+
+					// Nothing will ever be delivered to a rejected subscriber
+
+				}
+
+			});
+			aSubscriber.onError(new IllegalStateException(
+					"Only a single subscriber is supported."));
+			return;
+
+		}
+
+		aSubscriber.onSubscribe(aSubscription);
+		aSubscription.drain();
+
+	}
+
+	/**
+	 * 
+	 * Buffers the passed element, <code>anObject</code>, and delivers it to
+	 * the subscriber if it has signaled demand.
+	 * 
+	 * @param anObject
+	 *            The element to publish
+	 * 
+	 * @return <code>false</code> if the subscriber has cancelled its
+	 *         subscription, and <code>true</code> otherwise
+	 * 
+	 * @throws IllegalStateException
+	 *             If this publisher has been closed
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean offer(E anObject) {
+
+		this.myLock.lock();
+		try {
+
+			if (this.myClosed == true) {
+
+				throw new IllegalStateException(
+						"The publisher has been closed.");
+
+			}
+
+			QueueStackSubscription aSubscription = this.mySubscription.get();
+
+			if (aSubscription != null && aSubscription.myCancelled == true) {
+
+				return false;
+
+			}
+
+			this.myQueue.offer(anObject);
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+		this.drain();
+
+		return true;
+
+	}
+
+	/**
+	 * 
+	 * Closes this publisher. The subscriber is signaled completion once every
+	 * buffered element has been delivered.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public void close() {
+
+		this.myLock.lock();
+		try {
+
+			this.myClosed = true;
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+		this.drain();
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements buffered awaiting demand
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size() {
+
+		this.myLock.lock();
+		try {
+
+			return this.myQueue.size();
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+	private void drain() {
+
+		QueueStackSubscription aSubscription = this.mySubscription.get();
+
+		if (aSubscription != null) {
+
+			aSubscription.drain();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * The subscription of the single subscriber of a
+	 * {@linkplain QueueStackPublisher}.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	private final class QueueStackSubscription implements Flow.Subscription {
+
+		private final Flow.Subscriber<? super E> mySubscriber;
+
+		private final AtomicLong myDemand;
+
+		private final AtomicInteger myWorkInProgress;
+
+		private volatile boolean myCancelled;
+
+		private volatile Throwable myError;
+
+		private boolean myCompleted;
+
+		private QueueStackSubscription(Flow.Subscriber<? super E> aSubscriber) {
+
+			super();
+
+			this.mySubscriber = aSubscriber;
+			this.myDemand = new AtomicLong();
+			this.myWorkInProgress = new AtomicInteger();
+
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.Flow.Subscription#request(long)
+		 */
+		public void request(long aCount) {
+
+			if (aCount <= 0) {
+
+				// The error is signaled by the drain loop so that it is never
+				// concurrent with the delivery of an element
+				this.myError = new IllegalArgumentException(
+						"The requested demand must be greater than zero.");
+				this.drain();
+				return;
+
+			}
+
+			long aDemand;
+			long aNewDemand;
+			do {
+
+				aDemand = this.myDemand.get();
+				aNewDemand = aDemand + aCount;
+
+				if (aNewDemand < 0) {
+
+					aNewDemand = Long.MAX_VALUE;
+
+				}
+
+			} while (this.myDemand.compareAndSet(aDemand, aNewDemand) == false);
+
+			this.drain();
+
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * 
+		 * @see java.util.concurrent.Flow.Subscription#cancel()
+		 */
+		public void cancel() {
+
+			QueueStackPublisher.this.myLock.lock();
+			try {
+
+				this.myCancelled = true;
+				QueueStackPublisher.this.myQueue.clear();
+
+			} finally {
+
+				QueueStackPublisher.this.myLock.unlock();
+
+			}
+
+		}
+
+		/**
+		 * 
+		 * Delivers buffered elements in batches while there is demand, and
+		 * signals any pending error. Only one thread executes the loop at a
+		 * time -- other callers increment the work in progress count, causing
+		 * the executing thread to loop again.
+		 * 
+		 * @since 1.1.0
+		 * 
+		 */
+		@SuppressWarnings("unchecked")
+		private void drain() {
+
+			if (this.myWorkInProgress.getAndIncrement() != 0) {
+
+				return;
+
+			}
+
+			Object[] aBatch = QueueStackPublisher.this.myBatch;
+			int aMissed = 1;
+
+			do {
+
+				while (this.myCancelled == false && this.myCompleted == false) {
+
+					if (this.myError != null) {
+
+						this.myCompleted = true;
+						this.cancel();
+						this.mySubscriber.onError(this.myError);
+						break;
+
+					}
+
+					long aDemand = this.myDemand.get();
+					int aCount = 0;
+					boolean aDone;
+
+					QueueStackPublisher.this.myLock.lock();
+					try {
+
+						int aLimit = (int) Math.min(aDemand, aBatch.length);
+
+						while (aCount < aLimit
+								&& QueueStackPublisher.this.myQueue.isEmpty() == false) {
+
+							aBatch[aCount++] = QueueStackPublisher.this.myQueue
+									.poll();
+
+						}
+
+						aDone = QueueStackPublisher.this.myClosed == true
+								&& QueueStackPublisher.this.myQueue.isEmpty() == true;
+
+					} finally {
+
+						QueueStackPublisher.this.myLock.unlock();
+
+					}
+
+					for (int i = 0; i < aCount; i++) {
+
+						E anElement = (E) aBatch[i];
+						aBatch[i] = null;
+
+						if (this.myCancelled == false && this.myError == null) {
+
+							this.mySubscriber.onNext(anElement);
+
+						}
+
+					}
+
+					if (aDemand != Long.MAX_VALUE) {
+
+						this.myDemand.addAndGet(-aCount);
+
+					}
+
+					if (aDone == true) {
+
+						this.myCompleted = true;
+						this.mySubscriber.onComplete();
+
+					} else if (aCount == 0) {
+
+						break;
+
+					}
+
+				}
+
+				aMissed = this.myWorkInProgress.addAndGet(-aMissed);
+
+			} while (aMissed != 0);
+
+		}
+
+	}
+
+}
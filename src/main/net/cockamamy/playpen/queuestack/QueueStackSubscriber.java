@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * 
+ * A {@linkplain Flow.Subscriber} that buffers received elements in a bounded
+ * {@linkplain QueueStack} from which they are polled by the consumer. Upon
+ * subscription, demand for the full capacity is signaled. Thereafter, demand
+ * is replenished from <code>poll</code> once at least half of the capacity is
+ * free -- i.e. neither buffered nor already requested -- so that the upstream
+ * publisher is asked for elements in batches rather than one element at a
+ * time, and never for more than can be buffered.
+ * 
+ * An element received without outstanding demand violates the protocol of
+ * the publisher. Rather than throwing from <code>onNext</code>, the element
+ * is discarded, the subscription is cancelled and the violation is reported
+ * by {@linkplain #getError()}.
+ * 
+ * <b>N.B.</b> This class is thread-safe, and is bounded by its capacity.
+ * 
+ * @author John Burwell
+ * 
+ * @param <E>
+ *            The type of element received
+ * 
+ * @since 1.1.0
+ * 
+ */
+public final class QueueStackSubscriber<E> implements Flow.Subscriber<E> {
+
+	private final Lock myLock;
+
+	private final QueueStack<E> myQueue;
+
+	private final int myCapacity;
+
+	private final int myReplenishThreshold;
+
+	private Flow.Subscription mySubscription;
+
+	private long myOutstanding;
+
+	private boolean myDone;
+
+	private Throwable myError;
+
+	/**
+	 * 
+	 * @param aCapacity
+	 *            The maximum number of elements buffered and requested at any
+	 *            given time
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public QueueStackSubscriber(int aCapacity) {
+
+		super();
+
+		if (aCapacity < 1) {
+
+			throw new IllegalArgumentException(
+					"The capacity must be greater than zero.");
+
+		}
+
+		this.myLock = new ReentrantLock();
+		this.myQueue = new QueueStack<E>();
+		this.myCapacity = aCapacity;
+		this.myReplenishThreshold = Math.max(1, aCapacity / 2);
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Flow.Subscriber#onSubscribe(java.util.concurrent.Flow.Subscription)
+	 */
+	public void onSubscribe(Flow.Subscription aSubscription) {
+
+		this.myLock.lock();
+		try {
+
+			if (this.mySubscription != null) {
+
+				aSubscription.cancel();
+				return;
+
+			}
+
+			this.mySubscription = aSubscription;
+			this.myOutstanding = this.myCapacity;
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+		aSubscription.request(this.myCapacity);
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Flow.Subscriber#onNext(java.lang.Object)
+	 */
+	public void onNext(E anObject) {
+
+		if (anObject == null) {
+
+			throw new NullPointerException();
+
+		}
+
+		Flow.Subscription aSubscription = null;
+
+		this.myLock.lock();
+		try {
+
+			if (this.myDone == true) {
+
+				// Elements signaled after cancellation are discarded
+				return;
+
+			}
+
+			if (this.myOutstanding == 0) {
+
+				this.myError = new IllegalStateException(
+						"An element was received without outstanding demand.");
+				this.myDone = true;
+				aSubscription = this.mySubscription;
+
+			} else {
+
+				this.myQueue.offer(anObject);
+				this.myOutstanding--;
+
+			}
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+		if (aSubscription != null) {
+
+			aSubscription.cancel();
+
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Flow.Subscriber#onError(java.lang.Throwable)
+	 */
+	public void onError(Throwable aThrowable) {
+
+		this.myLock.lock();
+		try {
+
+			this.myError = aThrowable;
+			this.myDone = true;
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.util.concurrent.Flow.Subscriber#onComplete()
+	 */
+	public void onComplete() {
+
+		this.myLock.lock();
+		try {
+
+			this.myDone = true;
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Retrieves and removes the head of the buffer, requesting more elements
+	 * from the publisher if enough capacity has been freed.
+	 * 
+	 * @return The head of the buffer, or <code>null</code> if the buffer is
+	 *         empty
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public E poll() {
+
+		E anElement;
+		long aRequest = 0;
+		Flow.Subscription aSubscription;
+
+		this.myLock.lock();
+		try {
+
+			anElement = this.myQueue.poll();
+			aSubscription = this.mySubscription;
+
+			if (anElement != null && this.myDone == false
+					&& aSubscription != null) {
+
+				long aFree = this.myCapacity - this.myQueue.size()
+						- this.myOutstanding;
+
+				if (aFree >= this.myReplenishThreshold) {
+
+					aRequest = aFree;
+					this.myOutstanding += aFree;
+
+				}
+
+			}
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+		if (aRequest > 0) {
+
+			aSubscription.request(aRequest);
+
+		}
+
+		return anElement;
+
+	}
+
+	/**
+	 * 
+	 * Cancels the subscription. Elements already buffered remain available
+	 * to <code>poll</code>.
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public void cancel() {
+
+		Flow.Subscription aSubscription;
+
+		this.myLock.lock();
+		try {
+
+			aSubscription = this.mySubscription;
+			this.myDone = true;
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+		if (aSubscription != null) {
+
+			aSubscription.cancel();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * @return The number of elements buffered
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public int size() {
+
+		this.myLock.lock();
+		try {
+
+			return this.myQueue.size();
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * @return <code>true</code> if the publisher has signaled completion or an
+	 *         error (or the subscription was cancelled) and every buffered
+	 *         element has been polled
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public boolean isDone() {
+
+		this.myLock.lock();
+		try {
+
+			return this.myDone == true && this.myQueue.isEmpty() == true;
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * @return The error signaled by the publisher, or <code>null</code> if no
+	 *         error has been signaled
+	 * 
+	 * @since 1.1.0
+	 * 
+	 */
+	public Throwable getError() {
+
+		this.myLock.lock();
+		try {
+
+			return this.myError;
+
+		} finally {
+
+			this.myLock.unlock();
+
+		}
+
+	}
+
+}
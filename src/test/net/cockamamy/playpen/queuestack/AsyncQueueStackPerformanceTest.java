@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static java.lang.String.*;
+import static org.testng.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "performance")
+public final class AsyncQueueStackPerformanceTest {
+
+	private static final int CONSUMER_COUNT = 100000;
+
+	/**
+	 * 
+	 * Parks one consumer per virtual thread in <code>take()</code> and then
+	 * offers one element per consumer. Virtual threads are only available on
+	 * Java 21 and above -- on earlier versions, each consumer is instead a
+	 * <code>consume</code> loop dispatched to a small platform thread pool.
+	 * 
+	 */
+	@Test
+	public void testIdleConsumers() throws Exception {
+
+		final AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+		final CountDownLatch aLatch = new CountDownLatch(CONSUMER_COUNT);
+		ExecutorService aVirtualExecutor = createVirtualThreadExecutor();
+		ExecutorService aPoolExecutor = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors());
+		List<CompletableFuture<Void>> theHandles = new ArrayList<CompletableFuture<Void>>();
+
+		long aStartTime = System.nanoTime();
+		for (int i = 0; i < CONSUMER_COUNT; i++) {
+
+			if (aVirtualExecutor != null) {
+
+				aVirtualExecutor.execute(new Runnable() {
+
+					public void run() {
+
+						try {
+
+							aQueue.take();
+							aLatch.countDown();
+
+						} catch (InterruptedException e) {
+
+							Thread.currentThread().interrupt();
+
+						}
+
+					}
+
+				});
+
+			} else {
+
+				theHandles.add(aQueue.consume(new Consumer<Integer>() {
+
+					public void accept(Integer anElement) {
+
+						aLatch.countDown();
+
+					}
+
+				}, aPoolExecutor));
+
+			}
+
+		}
+		long aRegisterTime = System.nanoTime() - aStartTime;
+
+		aStartTime = System.nanoTime();
+		for (int i = 0; i < CONSUMER_COUNT; i++) {
+
+			aQueue.offer(i);
+
+		}
+
+		assertTrue(aLatch.await(60, TimeUnit.SECONDS));
+		long aDeliveryTime = System.nanoTime() - aStartTime;
+
+		for (CompletableFuture<Void> aHandle : theHandles) {
+
+			aHandle.cancel(false);
+
+		}
+
+		if (aVirtualExecutor != null) {
+
+			aVirtualExecutor.shutdown();
+
+		}
+		aPoolExecutor.shutdown();
+
+		System.out
+				.println(format(
+						"Registering %1$s %2$s consumers is %3$s nanoseconds per consumer and %4$s nanoseconds total.",
+						CONSUMER_COUNT,
+						(aVirtualExecutor != null ? "virtual thread"
+								: "asynchronous"), (aRegisterTime / CONSUMER_COUNT),
+						aRegisterTime));
+		System.out
+				.println(format(
+						"Delivery to %1$s consumers is %2$s nanoseconds per element and %3$s nanoseconds total.",
+						CONSUMER_COUNT, (aDeliveryTime / CONSUMER_COUNT),
+						aDeliveryTime));
+
+	}
+
+	private static ExecutorService createVirtualThreadExecutor() {
+
+		try {
+
+			return (ExecutorService) Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor").invoke(null);
+
+		} catch (NoSuchMethodException e) {
+
+			return null;
+
+		} catch (Exception e) {
+
+			throw new IllegalStateException(e);
+
+		}
+
+	}
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static org.testng.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class AsyncQueueStackTest {
+
+	@Test
+	public void testOfferPoll() {
+
+		AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+
+		assertNull(aQueue.poll());
+
+		aQueue.offer(1);
+		aQueue.offer(2);
+
+		assertEquals(aQueue.size(), 2);
+		assertEquals(aQueue.poll(), Integer.valueOf(1));
+		assertEquals(aQueue.pollAsync().join(), Integer.valueOf(2));
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	@Test
+	public void testWaitersServedInOrder() {
+
+		AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+
+		CompletableFuture<Integer> aFirst = aQueue.pollAsync();
+		CompletableFuture<Integer> aSecond = aQueue.pollAsync();
+
+		assertFalse(aFirst.isDone());
+		assertFalse(aSecond.isDone());
+
+		aQueue.offer(1);
+
+		assertEquals(aFirst.getNow(null), Integer.valueOf(1));
+		assertFalse(aSecond.isDone());
+
+		aQueue.offer(2);
+
+		assertEquals(aSecond.getNow(null), Integer.valueOf(2));
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	@Test
+	public void testCancelledWaiterSkipped() {
+
+		AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+
+		CompletableFuture<Integer> aCancelled = aQueue.pollAsync();
+		CompletableFuture<Integer> aWaiter = aQueue.pollAsync();
+
+		aCancelled.cancel(false);
+		aQueue.offer(1);
+
+		assertEquals(aWaiter.getNow(null), Integer.valueOf(1));
+
+		aQueue.offer(2);
+
+		assertEquals(aQueue.poll(), Integer.valueOf(2));
+
+	}
+
+	@Test
+	public void testTake() throws Exception {
+
+		final AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+		final CompletableFuture<Integer> aResult = new CompletableFuture<Integer>();
+
+		Thread aConsumer = new Thread(new Runnable() {
+
+			public void run() {
+
+				try {
+
+					aResult.complete(aQueue.take());
+
+				} catch (InterruptedException e) {
+
+					aResult.completeExceptionally(e);
+
+				}
+
+			}
+
+		});
+		aConsumer.start();
+
+		aQueue.offer(1);
+
+		assertEquals(aResult.get(10, TimeUnit.SECONDS), Integer.valueOf(1));
+
+	}
+
+	@Test
+	public void testTakeInterrupted() throws Exception {
+
+		final AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+		final CompletableFuture<Throwable> aResult = new CompletableFuture<Throwable>();
+
+		Thread aConsumer = new Thread(new Runnable() {
+
+			public void run() {
+
+				try {
+
+					aQueue.take();
+					aResult.complete(null);
+
+				} catch (InterruptedException e) {
+
+					aResult.complete(e);
+
+				}
+
+			}
+
+		});
+		aConsumer.start();
+		aConsumer.interrupt();
+
+		assertTrue(aResult.get(10, TimeUnit.SECONDS) instanceof InterruptedException);
+
+		// The interrupted consumer no longer claims elements
+		aQueue.offer(1);
+
+		assertEquals(aQueue.poll(), Integer.valueOf(1));
+
+	}
+
+	@Test
+	public void testConsume() throws Exception {
+
+		AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+		final List<Integer> aReceived = Collections
+				.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch aLatch = new CountDownLatch(100);
+		ExecutorService anExecutor = Executors.newSingleThreadExecutor();
+
+		aQueue.offer(0);
+
+		CompletableFuture<Void> aHandle = aQueue.consume(new Consumer<Integer>() {
+
+			public void accept(Integer anElement) {
+
+				aReceived.add(anElement);
+				aLatch.countDown();
+
+			}
+
+		}, anExecutor);
+
+		for (int i = 1; i < 100; i++) {
+
+			aQueue.offer(i);
+
+		}
+
+		assertTrue(aLatch.await(10, TimeUnit.SECONDS));
+		assertEquals(aReceived, TestUtilities.createIntegerQueue(100));
+
+		aHandle.cancel(false);
+
+		// Once stopped, the loop no longer claims elements
+		aQueue.offer(100);
+
+		assertEquals(aQueue.poll(), Integer.valueOf(100));
+
+		anExecutor.shutdown();
+
+	}
+
+	@Test
+	public void testConsumerFailureStopsLoop() throws Exception {
+
+		AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+		ExecutorService anExecutor = Executors.newSingleThreadExecutor();
+
+		CompletableFuture<Void> aHandle = aQueue.consume(new Consumer<Integer>() {
+
+			public void accept(Integer anElement) {
+
+				throw new IllegalStateException();
+
+			}
+
+		}, anExecutor);
+
+		aQueue.offer(1);
+
+		try {
+
+			aHandle.get(10, TimeUnit.SECONDS);
+			fail("The consumer failure was not propagated.");
+
+		} catch (ExecutionException e) {
+
+			assertTrue(e.getCause() instanceof IllegalStateException);
+
+		}
+
+		anExecutor.shutdown();
+
+	}
+
+	@Test
+	public void testConsumerErrorStopsLoop() throws Exception {
+
+		AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+		ExecutorService anExecutor = Executors.newSingleThreadExecutor();
+
+		CompletableFuture<Void> aHandle = aQueue.consume(new Consumer<Integer>() {
+
+			public void accept(Integer anElement) {
+
+				throw new AssertionError();
+
+			}
+
+		}, anExecutor);
+
+		aQueue.offer(1);
+
+		try {
+
+			aHandle.get(10, TimeUnit.SECONDS);
+			fail("The consumer error was not propagated.");
+
+		} catch (ExecutionException e) {
+
+			assertTrue(e.getCause() instanceof AssertionError);
+
+		}
+
+		anExecutor.shutdown();
+
+	}
+
+	@Test
+	public void testAbandonedWaitersPurged() {
+
+		AsyncQueueStack<Integer> aQueue = new AsyncQueueStack<Integer>();
+
+		for (int i = 0; i < 10; i++) {
+
+			aQueue.pollAsync().cancel(false);
+
+		}
+
+		aQueue.pollAsync().completeExceptionally(new TimeoutException());
+
+		// The abandoned waiters are discarded without an offer
+		CompletableFuture<Integer> aWaiter = aQueue.pollAsync();
+		assertEquals(aQueue.getWaiterCount(), 1);
+
+		aQueue.offer(1);
+		assertEquals(aWaiter.join(), Integer.valueOf(1));
+		assertEquals(aQueue.getWaiterCount(), 0);
+
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static net.cockamamy.playpen.queuestack.TestUtilities.*;
+import static org.testng.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class BatchingQueueStackTest {
+
+	private ManualTicker myTicker;
+
+	private List<List<Integer>> myBatches;
+
+	private Consumer<List<Integer>> myHandler;
+
+	@BeforeMethod
+	public void setUp() {
+
+		this.myTicker = new ManualTicker();
+		this.myBatches = new ArrayList<List<Integer>>();
+		this.myHandler = new Consumer<List<Integer>>() {
+
+			public void accept(List<Integer> aBatch) {
+
+				BatchingQueueStackTest.this.myBatches
+						.add(new ArrayList<Integer>(aBatch));
+
+			}
+
+		};
+
+	}
+
+	@Test
+	public void testSizeTrigger() {
+
+		BatchingQueueStack<Integer> aQueue = new BatchingQueueStack<Integer>(
+				3, 100, TimeUnit.MICROSECONDS, this.myTicker);
+
+		aQueue.offer(1);
+		aQueue.offer(2);
+
+		assertFalse(aQueue.isReady());
+		assertFalse(aQueue.poll(this.myHandler));
+
+		aQueue.offer(3);
+		aQueue.offer(4);
+
+		assertTrue(aQueue.isReady());
+		assertTrue(aQueue.poll(this.myHandler));
+		assertEquals(this.myBatches, Arrays.asList(Arrays.asList(1, 2, 3)));
+		assertEquals(aQueue.size(), 1);
+		assertFalse(aQueue.poll(this.myHandler));
+
+	}
+
+	@Test
+	public void testTimeTrigger() {
+
+		BatchingQueueStack<Integer> aQueue = new BatchingQueueStack<Integer>(
+				10, 100, TimeUnit.MICROSECONDS, this.myTicker);
+
+		assertEquals(aQueue.getDelay(TimeUnit.MICROSECONDS), Long.MAX_VALUE);
+
+		aQueue.offer(1);
+		this.myTicker.advance(60, TimeUnit.MICROSECONDS);
+		aQueue.offer(2);
+
+		assertEquals(aQueue.getDelay(TimeUnit.MICROSECONDS), 40);
+		assertFalse(aQueue.poll(this.myHandler));
+
+		// The delay is measured from the oldest pending element
+		this.myTicker.advance(40, TimeUnit.MICROSECONDS);
+
+		assertEquals(aQueue.getDelay(TimeUnit.MICROSECONDS), 0);
+		assertTrue(aQueue.poll(this.myHandler));
+		assertEquals(this.myBatches, Arrays.asList(Arrays.asList(1, 2)));
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	@Test
+	public void testTimeTriggerAfterSizeTrigger() {
+
+		BatchingQueueStack<Integer> aQueue = new BatchingQueueStack<Integer>(
+				2, 100, TimeUnit.MICROSECONDS, this.myTicker);
+
+		aQueue.offer(1);
+		aQueue.offer(2);
+		this.myTicker.advance(50, TimeUnit.MICROSECONDS);
+		aQueue.offer(3);
+
+		assertTrue(aQueue.poll(this.myHandler));
+
+		// The remaining element arrived 50 microseconds after the first
+		assertEquals(aQueue.getDelay(TimeUnit.MICROSECONDS), 100);
+
+		this.myTicker.advance(100, TimeUnit.MICROSECONDS);
+
+		assertTrue(aQueue.poll(this.myHandler));
+		assertEquals(this.myBatches,
+				Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3)));
+
+	}
+
+	@Test
+	public void testFlush() {
+
+		BatchingQueueStack<Integer> aQueue = new BatchingQueueStack<Integer>(
+				2, 100, TimeUnit.MICROSECONDS, this.myTicker);
+
+		for (int i = 0; i < 5; i++) {
+
+			aQueue.offer(i);
+
+		}
+
+		assertEquals(aQueue.flush(this.myHandler), 3);
+		assertEquals(this.myBatches, Arrays.asList(Arrays.asList(0, 1),
+				Arrays.asList(2, 3), Arrays.asList(4)));
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	@Test
+	public void testBatchIsReused() {
+
+		BatchingQueueStack<Integer> aQueue = new BatchingQueueStack<Integer>(
+				2, 100, TimeUnit.MICROSECONDS, this.myTicker);
+		final List<List<Integer>> theViews = new ArrayList<List<Integer>>();
+
+		for (int i = 0; i < 4; i++) {
+
+			aQueue.offer(i);
+
+		}
+
+		aQueue.flush(new Consumer<List<Integer>>() {
+
+			public void accept(List<Integer> aBatch) {
+
+				theViews.add(aBatch);
+
+			}
+
+		});
+
+		assertEquals(theViews.size(), 2);
+		assertSame(theViews.get(0), theViews.get(1));
+		assertTrue(theViews.get(0).isEmpty());
+
+	}
+
+}
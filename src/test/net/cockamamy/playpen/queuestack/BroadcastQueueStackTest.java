@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static org.testng.Assert.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class BroadcastQueueStackTest {
+
+	@Test
+	public void testEveryCursorSeesEveryElement() {
+
+		BroadcastQueueStack<Integer> aQueue = new BroadcastQueueStack<Integer>();
+		BroadcastQueueStack<Integer>.Cursor aCursor = aQueue.openCursor();
+		BroadcastQueueStack<Integer>.Cursor thatCursor = aQueue.openCursor();
+
+		for (int i = 0; i < 100; i++) {
+
+			assertTrue(aQueue.offer(i));
+
+		}
+
+		assertEquals(aCursor.getLag(), 100);
+		assertEquals(thatCursor.getLag(), 100);
+
+		for (int i = 0; i < 100; i++) {
+
+			assertEquals(aCursor.peek(), Integer.valueOf(i));
+			assertEquals(aCursor.poll(), Integer.valueOf(i));
+
+		}
+
+		assertTrue(aCursor.isEmpty());
+		assertNull(aCursor.poll());
+		assertEquals(thatCursor.getLag(), 100);
+
+		for (int i = 0; i < 100; i++) {
+
+			assertEquals(thatCursor.poll(), Integer.valueOf(i));
+
+		}
+
+		assertTrue(thatCursor.isEmpty());
+
+	}
+
+	@Test
+	public void testReclaimedBySlowestCursor() {
+
+		BroadcastQueueStack<Integer> aQueue = new BroadcastQueueStack<Integer>();
+		BroadcastQueueStack<Integer>.Cursor aFastCursor = aQueue.openCursor();
+		BroadcastQueueStack<Integer>.Cursor aSlowCursor = aQueue.openCursor();
+
+		// The fast cursor keeps up, so the retained log is bounded by the lag
+		// of the slow cursor alone
+		for (int i = 0; i < 1000; i++) {
+
+			aQueue.offer(i);
+			assertEquals(aFastCursor.poll(), Integer.valueOf(i));
+
+			if (i % 2 == 0) {
+
+				aSlowCursor.poll();
+
+			}
+
+		}
+
+		assertEquals(aFastCursor.getLag(), 0);
+		assertEquals(aSlowCursor.getLag(), 500);
+		assertEquals(aQueue.getRetainedCount(), 500);
+		assertEquals(aSlowCursor.poll(), Integer.valueOf(500));
+
+		// Closing the slowest cursor releases everything the fast cursor has
+		// already read
+		aSlowCursor.close();
+
+		assertEquals(aQueue.getCursorCount(), 1);
+		assertEquals(aQueue.getRetainedCount(), 0);
+
+	}
+
+	@Test
+	public void testReclaimedOnceEveryCursorCatchesUp() {
+
+		BroadcastQueueStack<Integer> aQueue = new BroadcastQueueStack<Integer>();
+		BroadcastQueueStack<Integer>.Cursor aCursor = aQueue.openCursor();
+		BroadcastQueueStack<Integer>.Cursor thatCursor = aQueue.openCursor();
+
+		for (int i = 0; i < 1000; i++) {
+
+			aQueue.offer(i);
+
+		}
+
+		while (aCursor.poll() != null) {
+
+			assertEquals(aQueue.getRetainedCount(), 1000);
+
+		}
+
+		for (int i = 0; i < 1000; i++) {
+
+			assertEquals(thatCursor.poll(), Integer.valueOf(i));
+			assertEquals(aQueue.getRetainedCount(), 999 - i);
+
+		}
+
+		assertEquals(aCursor.getLag(), 0);
+		assertEquals(thatCursor.getLag(), 0);
+
+		// A cursor opened once the others have caught up shares the head
+		BroadcastQueueStack<Integer>.Cursor aLateCursor = aQueue.openCursor();
+
+		aQueue.offer(1000);
+		assertEquals(aCursor.poll(), Integer.valueOf(1000));
+		assertEquals(thatCursor.poll(), Integer.valueOf(1000));
+		assertEquals(aQueue.getRetainedCount(), 1);
+		assertEquals(aLateCursor.poll(), Integer.valueOf(1000));
+		assertEquals(aQueue.getRetainedCount(), 0);
+
+	}
+
+	@Test
+	public void testCursorOpenedLate() {
+
+		BroadcastQueueStack<Integer> aQueue = new BroadcastQueueStack<Integer>();
+
+		aQueue.offer(1);
+
+		BroadcastQueueStack<Integer>.Cursor aCursor = aQueue.openCursor();
+
+		assertTrue(aCursor.isEmpty());
+
+		aQueue.offer(2);
+
+		assertEquals(aCursor.poll(), Integer.valueOf(2));
+
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void testClosedCursor() {
+
+		BroadcastQueueStack<Integer> aQueue = new BroadcastQueueStack<Integer>();
+		BroadcastQueueStack<Integer>.Cursor aCursor = aQueue.openCursor();
+
+		aCursor.close();
+		aCursor.poll();
+
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testOfferNull() {
+
+		new BroadcastQueueStack<Integer>().offer(null);
+
+	}
+
+}
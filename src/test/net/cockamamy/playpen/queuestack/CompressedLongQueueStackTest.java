@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static net.cockamamy.playpen.queuestack.TestUtilities.*;
+import static org.testng.Assert.*;
+
+import java.util.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class CompressedLongQueueStackTest {
+
+	@Test
+	public void testEmpty() {
+
+		CompressedLongQueueStack aQueue = new CompressedLongQueueStack();
+
+		assertTrue(aQueue.isEmpty());
+		assertNull(aQueue.poll());
+		assertNull(aQueue.peek());
+		assertFalse(aQueue.iterator().hasNext());
+
+	}
+
+	@Test(expectedExceptions = NoSuchElementException.class)
+	public void testEmptyPollLong() {
+
+		new CompressedLongQueueStack().pollLong();
+
+	}
+
+	@Test
+	public void testOfferPoll() {
+
+		Queue<Integer> theElements = createIntegerQueue(1000);
+		CompressedLongQueueStack aQueue = new CompressedLongQueueStack();
+
+		for (Integer anElement : theElements) {
+
+			assertTrue(aQueue.offer(anElement.longValue()));
+
+		}
+
+		assertEquals(aQueue.size(), theElements.size());
+
+		for (Integer anElement : theElements) {
+
+			assertEquals(aQueue.peekLong(), anElement.longValue());
+			assertEquals(aQueue.pollLong(), anElement.longValue());
+
+		}
+
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	@Test
+	public void testArbitraryValues() {
+
+		long[] theValues = new long[] { 0, -1, 1, Long.MIN_VALUE,
+				Long.MAX_VALUE, 42, -42, Long.MAX_VALUE, Long.MIN_VALUE, 0 };
+		CompressedLongQueueStack aQueue = new CompressedLongQueueStack();
+
+		for (long aValue : theValues) {
+
+			aQueue.offerLong(aValue);
+
+		}
+
+		for (long aValue : theValues) {
+
+			assertEquals(aQueue.pollLong(), aValue);
+
+		}
+
+	}
+
+	@Test
+	public void testInterleaved() {
+
+		Queue<Long> anExpected = new LinkedList<Long>();
+		CompressedLongQueueStack aQueue = new CompressedLongQueueStack();
+		Random aRandom = new Random(42);
+		long aValue = System.currentTimeMillis();
+
+		for (int i = 0; i < 10000; i++) {
+
+			if (aRandom.nextInt(3) != 0) {
+
+				aValue += aRandom.nextInt(1000);
+				aQueue.offerLong(aValue);
+				anExpected.offer(aValue);
+
+			} else {
+
+				assertEquals(aQueue.poll(), anExpected.poll());
+
+			}
+
+			assertEquals(aQueue.size(), anExpected.size());
+
+			if (i % 1000 == 0) {
+
+				assertEquals(new ArrayList<Long>(aQueue), new ArrayList<Long>(
+						anExpected));
+
+			}
+
+		}
+
+		assertEquals(new ArrayList<Long>(aQueue), new ArrayList<Long>(
+				anExpected));
+		assertEquals(aQueue.size(), anExpected.size());
+
+	}
+
+	@Test
+	public void testCompression() {
+
+		CompressedLongQueueStack aQueue = new CompressedLongQueueStack();
+
+		for (long i = 0; i < 100000; i++) {
+
+			aQueue.offerLong(1000000000L + i);
+
+		}
+
+		// Consecutive sequence numbers are encoded in a single byte each
+		assertTrue(aQueue.getEncodedSize() < 2 * aQueue.size());
+
+	}
+
+	@Test
+	public void testEncodedSize() {
+
+		CompressedLongQueueStack aQueue = new CompressedLongQueueStack();
+		assertEquals(aQueue.getEncodedSize(), 0);
+
+		for (long i = 0; i < 10 * CompressedLongQueueStack.BLOCK_SIZE; i++) {
+
+			aQueue.offerLong(i);
+
+		}
+
+		// Sealed blocks are trimmed to about a byte per element, while the
+		// tail block retains its initial capacity
+		long anEncodedSize = aQueue.getEncodedSize();
+		assertTrue(anEncodedSize < 12 * CompressedLongQueueStack.BLOCK_SIZE);
+
+		for (int i = 0; i < CompressedLongQueueStack.BLOCK_SIZE; i++) {
+
+			aQueue.pollLong();
+
+		}
+
+		assertEquals(aQueue.getEncodedSize(), anEncodedSize
+				- CompressedLongQueueStack.BLOCK_SIZE);
+
+		while (aQueue.isEmpty() == false) {
+
+			aQueue.pollLong();
+
+		}
+
+		// Only the reusable tail block remains
+		assertTrue(aQueue.getEncodedSize() > 0);
+		assertTrue(aQueue.getEncodedSize() <= 2 * CompressedLongQueueStack.BLOCK_SIZE);
+
+		aQueue.clear();
+		assertEquals(aQueue.getEncodedSize(), 0);
+
+	}
+
+	@Test
+	public void testClear() {
+
+		CompressedLongQueueStack aQueue = new CompressedLongQueueStack();
+
+		aQueue.offerLong(1);
+		aQueue.clear();
+
+		assertTrue(aQueue.isEmpty());
+
+		aQueue.offerLong(2);
+
+		assertEquals(aQueue.pollLong(), 2);
+
+	}
+
+}
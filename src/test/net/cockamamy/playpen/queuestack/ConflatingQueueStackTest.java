@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static org.testng.Assert.*;
+
+import java.util.*;
+import java.util.function.*;
+
+import net.cockamamy.playpen.queuestack.ConflatingQueueStack.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class ConflatingQueueStackTest {
+
+	@Test
+	public void testConflation() {
+
+		ConflatingQueueStack<String, Integer> aQueue = new ConflatingQueueStack<String, Integer>();
+
+		assertNull(aQueue.poll());
+		assertNull(aQueue.peek());
+
+		assertTrue(aQueue.offer("a", 1));
+		assertTrue(aQueue.offer("b", 1));
+		assertFalse(aQueue.offer("a", 2));
+		assertTrue(aQueue.offer("c", 1));
+		assertFalse(aQueue.offer("a", 3));
+
+		assertEquals(aQueue.size(), 3);
+		assertEquals(aQueue.getConflatedCount(), 2);
+		assertEquals(aQueue.getPendingValue("a"), Integer.valueOf(3));
+		assertNull(aQueue.getPendingValue("d"));
+
+		// The latest value is delivered at the original position of the key
+		assertEquals(aQueue.peek().getKey(), "a");
+		Entry<String, Integer> anEntry = aQueue.poll();
+		assertEquals(anEntry.getKey(), "a");
+		assertEquals(anEntry.getValue(), Integer.valueOf(3));
+
+		// Once polled, a key is queued again rather than conflated
+		assertTrue(aQueue.offer("a", 4));
+		assertEquals(anEntry.getValue(), Integer.valueOf(3));
+
+		assertEquals(aQueue.poll().getKey(), "b");
+		assertEquals(aQueue.poll().getKey(), "c");
+		assertEquals(aQueue.poll().getValue(), Integer.valueOf(4));
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	@Test
+	public void testConflationAcrossFlips() {
+
+		ConflatingQueueStack<Integer, Integer> aQueue = new ConflatingQueueStack<Integer, Integer>();
+
+		for (int i = 0; i < 10; i++) {
+
+			aQueue.offer(i, 0);
+
+		}
+
+		// Each peek and offer flips the entries between the stacks
+		for (int aVersion = 1; aVersion <= 5; aVersion++) {
+
+			assertEquals(aQueue.peek().getKey(), Integer.valueOf(0));
+
+			for (int i = 0; i < 10; i++) {
+
+				assertFalse(aQueue.offer(i, aVersion));
+
+			}
+
+		}
+
+		for (int i = 0; i < 10; i++) {
+
+			Entry<Integer, Integer> anEntry = aQueue.poll();
+			assertEquals(anEntry.getKey(), Integer.valueOf(i));
+			assertEquals(anEntry.getValue(), Integer.valueOf(5));
+
+		}
+
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	@Test
+	public void testDrain() {
+
+		ConflatingQueueStack<String, Integer> aQueue = new ConflatingQueueStack<String, Integer>();
+		aQueue.offer("a", 1);
+		aQueue.offer("b", 1);
+		aQueue.offer("a", 2);
+
+		final List<String> theDrained = new ArrayList<String>();
+
+		assertEquals(aQueue.drain(new Consumer<Entry<String, Integer>>() {
+
+			public void accept(Entry<String, Integer> anEntry) {
+
+				theDrained.add(anEntry.toString());
+
+			}
+
+		}), 2);
+
+		assertEquals(theDrained, Arrays.asList("a=2", "b=1"));
+		assertNull(aQueue.getPendingValue("a"));
+		assertTrue(aQueue.offer("a", 3));
+
+		aQueue.clear();
+		assertTrue(aQueue.isEmpty());
+		assertTrue(aQueue.offer("a", 4));
+
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testOfferNull() {
+
+		new ConflatingQueueStack<String, Integer>().offer("a", null);
+
+	}
+
+}
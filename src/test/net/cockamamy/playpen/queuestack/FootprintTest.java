@@ -0,0 +1,621 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static java.lang.String.*;
+import static org.testng.Assert.*;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.testng.*;
+import org.testng.annotations.*;
+
+/**
+ * 
+ * Measures the heap retained per element by each queue variant at a range of
+ * depths, with {@linkplain ArrayDeque} and {@linkplain LinkedList} for
+ * comparison. Each element is a distinct boxed <code>Long</code> (except for
+ * the compressed variant, which stores primitives), so the figures include
+ * the elements themselves.
+ * 
+ * The retained footprint is measured once the queue has been filled to the
+ * depth. The peak footprint is the greatest live heap sampled by a separate
+ * thread, which collects garbage repeatedly while the queue is filled and
+ * then drained, so it captures transient states such as a
+ * {@linkplain QueueStack} flip, during which the emptied stack still retains
+ * an array large enough for every element. As a sample, it is a lower bound
+ * on the true peak -- the briefer the transient (i.e. the shallower the
+ * queue), the more likely it is to be missed.
+ * 
+ * The results are published as tables in the test report.
+ * 
+ */
+@Test(groups = "performance")
+public final class FootprintTest {
+
+	private static final int[] DEPTHS = new int[] { 10000, 100000, 1000000 };
+
+	private static final int BATCH_SIZE = 100;
+
+	private static final Consumer<List<Long>> IGNORE_BATCH = new Consumer<List<Long>>() {
+
+		public void accept(List<Long> aBatch) {
+
+			// The batch is only being drained
+
+		}
+
+	};
+
+	@Test
+	public void testFootprint() throws InterruptedException {
+
+		List<Variant<?>> theVariants = Arrays.<Variant<?>> asList(
+				new QueueStackVariant("QueueStack (flip)",
+						QueueStack.Strategy.FLIP),
+				new QueueStackVariant("QueueStack (two stack)",
+						QueueStack.Strategy.TWO_STACK),
+				new QueueStackVariant("QueueStack (adaptive)", null),
+				new Variant<PriorityQueueStack<Long>>(
+						"PriorityQueueStack (4 levels)") {
+
+					PriorityQueueStack<Long> create() {
+
+						return new PriorityQueueStack<Long>(4);
+
+					}
+
+					PriorityQueueStack<Long> offer(
+							PriorityQueueStack<Long> aQueue, long aValue) {
+
+						aQueue.offer(Long.valueOf(aValue), (int) (aValue & 3));
+						return aQueue;
+
+					}
+
+					PriorityQueueStack<Long> poll(
+							PriorityQueueStack<Long> aQueue) {
+
+						aQueue.poll();
+						return aQueue;
+
+					}
+
+					int size(PriorityQueueStack<Long> aQueue) {
+
+						return aQueue.size();
+
+					}
+
+				}, new Variant<PersistentQueueStack<Long>>(
+						"PersistentQueueStack") {
+
+					PersistentQueueStack<Long> create() {
+
+						return PersistentQueueStack.empty();
+
+					}
+
+					PersistentQueueStack<Long> offer(
+							PersistentQueueStack<Long> aQueue, long aValue) {
+
+						return aQueue.offer(Long.valueOf(aValue));
+
+					}
+
+					PersistentQueueStack<Long> poll(
+							PersistentQueueStack<Long> aQueue) {
+
+						return aQueue.poll();
+
+					}
+
+					int size(PersistentQueueStack<Long> aQueue) {
+
+						return aQueue.size();
+
+					}
+
+				}, new Variant<CompressedLongQueueStack>(
+						"CompressedLongQueueStack") {
+
+					CompressedLongQueueStack create() {
+
+						return new CompressedLongQueueStack();
+
+					}
+
+					CompressedLongQueueStack offer(
+							CompressedLongQueueStack aQueue, long aValue) {
+
+						aQueue.offerLong(aValue);
+						return aQueue;
+
+					}
+
+					CompressedLongQueueStack poll(
+							CompressedLongQueueStack aQueue) {
+
+						aQueue.pollLong();
+						return aQueue;
+
+					}
+
+					int size(CompressedLongQueueStack aQueue) {
+
+						return aQueue.size();
+
+					}
+
+				}, new Variant<BroadcastQueueStack<Long>.Cursor>(
+						"BroadcastQueueStack (1 cursor)") {
+
+					private BroadcastQueueStack<Long> myQueue;
+
+					BroadcastQueueStack<Long>.Cursor create() {
+
+						this.myQueue = new BroadcastQueueStack<Long>();
+						return this.myQueue.openCursor();
+
+					}
+
+					BroadcastQueueStack<Long>.Cursor offer(
+							BroadcastQueueStack<Long>.Cursor aCursor,
+							long aValue) {
+
+						this.myQueue.offer(Long.valueOf(aValue));
+						return aCursor;
+
+					}
+
+					BroadcastQueueStack<Long>.Cursor poll(
+							BroadcastQueueStack<Long>.Cursor aCursor) {
+
+						aCursor.poll();
+						return aCursor;
+
+					}
+
+					int size(BroadcastQueueStack<Long>.Cursor aCursor) {
+
+						return (int) aCursor.getLag();
+
+					}
+
+				}, new Variant<AsyncQueueStack<Long>>("AsyncQueueStack") {
+
+					AsyncQueueStack<Long> create() {
+
+						return new AsyncQueueStack<Long>();
+
+					}
+
+					AsyncQueueStack<Long> offer(AsyncQueueStack<Long> aQueue,
+							long aValue) {
+
+						aQueue.offer(Long.valueOf(aValue));
+						return aQueue;
+
+					}
+
+					AsyncQueueStack<Long> poll(AsyncQueueStack<Long> aQueue) {
+
+						aQueue.poll();
+						return aQueue;
+
+					}
+
+					int size(AsyncQueueStack<Long> aQueue) {
+
+						return aQueue.size();
+
+					}
+
+				}, new Variant<BatchingQueueStack<Long>>(
+						"BatchingQueueStack (" + BATCH_SIZE + ")") {
+
+					BatchingQueueStack<Long> create() {
+
+						return new BatchingQueueStack<Long>(BATCH_SIZE, 0,
+								TimeUnit.NANOSECONDS);
+
+					}
+
+					BatchingQueueStack<Long> offer(
+							BatchingQueueStack<Long> aQueue, long aValue) {
+
+						aQueue.offer(Long.valueOf(aValue));
+						return aQueue;
+
+					}
+
+					BatchingQueueStack<Long> poll(
+							BatchingQueueStack<Long> aQueue) {
+
+						aQueue.poll(IGNORE_BATCH);
+						return aQueue;
+
+					}
+
+					int size(BatchingQueueStack<Long> aQueue) {
+
+						return aQueue.size();
+
+					}
+
+				}, new Variant<ArrayDeque<Long>>("ArrayDeque") {
+
+					ArrayDeque<Long> create() {
+
+						return new ArrayDeque<Long>();
+
+					}
+
+					ArrayDeque<Long> offer(ArrayDeque<Long> aQueue, long aValue) {
+
+						aQueue.offer(Long.valueOf(aValue));
+						return aQueue;
+
+					}
+
+					ArrayDeque<Long> poll(ArrayDeque<Long> aQueue) {
+
+						aQueue.poll();
+						return aQueue;
+
+					}
+
+					int size(ArrayDeque<Long> aQueue) {
+
+						return aQueue.size();
+
+					}
+
+				}, new Variant<LinkedList<Long>>("LinkedList") {
+
+					LinkedList<Long> create() {
+
+						return new LinkedList<Long>();
+
+					}
+
+					LinkedList<Long> offer(LinkedList<Long> aQueue, long aValue) {
+
+						aQueue.offer(Long.valueOf(aValue));
+						return aQueue;
+
+					}
+
+					LinkedList<Long> poll(LinkedList<Long> aQueue) {
+
+						aQueue.poll();
+						return aQueue;
+
+					}
+
+					int size(LinkedList<Long> aQueue) {
+
+						return aQueue.size();
+
+					}
+
+				});
+
+		Map<String, double[]> theRetained = new LinkedHashMap<String, double[]>();
+		Map<String, double[]> thePeaks = new LinkedHashMap<String, double[]>();
+
+		for (Variant<?> aVariant : theVariants) {
+
+			double[] theRetainedBytes = new double[DEPTHS.length];
+			double[] thePeakBytes = new double[DEPTHS.length];
+
+			for (int i = 0; i < DEPTHS.length; i++) {
+
+				long[] aFootprint = measure(aVariant, DEPTHS[i]);
+
+				theRetainedBytes[i] = (double) aFootprint[0] / DEPTHS[i];
+				thePeakBytes[i] = (double) aFootprint[1] / DEPTHS[i];
+
+			}
+
+			theRetained.put(aVariant.myName, theRetainedBytes);
+			thePeaks.put(aVariant.myName, thePeakBytes);
+
+		}
+
+		report("Retained bytes per element by depth:", theRetained);
+		report("Peak bytes per element by depth:", thePeaks);
+
+		int aDeepest = DEPTHS.length - 1;
+		double aQueueStack = theRetained.get("QueueStack (flip)")[aDeepest];
+
+		assertTrue(aQueueStack > 0);
+		assertTrue(thePeaks.get("QueueStack (flip)")[aDeepest] > aQueueStack);
+		assertTrue(theRetained.get("CompressedLongQueueStack")[aDeepest] * 4 < aQueueStack);
+
+		for (String aName : theRetained.keySet()) {
+
+			for (int i = 0; i < DEPTHS.length; i++) {
+
+				assertTrue(thePeaks.get(aName)[i] >= theRetained.get(aName)[i]);
+
+			}
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * Fills a queue created by the passed variant, <code>aVariant</code>, to
+	 * the passed depth, <code>aDepth</code>, and then drains it, sampling the
+	 * heap from a separate thread throughout.
+	 * 
+	 * @return The number of bytes of heap retained by the filled queue, and
+	 *         the greatest number of bytes sampled while it was filled and
+	 *         drained
+	 * 
+	 */
+	private static <Q> long[] measure(Variant<Q> aVariant, int aDepth)
+			throws InterruptedException {
+
+		PeakSampler aSampler = new PeakSampler();
+		long aBaseline = usedMemory();
+		long aRetained;
+
+		aSampler.start();
+
+		try {
+
+			Q aQueue = aVariant.create();
+
+			for (long i = 0; i < aDepth; i++) {
+
+				aQueue = aVariant.offer(aQueue, i + Short.MAX_VALUE);
+
+			}
+
+			aRetained = usedMemory() - aBaseline;
+
+			while (aVariant.size(aQueue) > 0) {
+
+				aQueue = aVariant.poll(aQueue);
+
+			}
+
+			// Keep the queue reachable until after the measurement
+			assertNotNull(aQueue);
+
+		} finally {
+
+			aSampler.finish();
+
+		}
+
+		return new long[] { aRetained, Math.max(aRetained, aSampler.myPeak) };
+
+	}
+
+	private static long usedMemory() {
+
+		Runtime aRuntime = Runtime.getRuntime();
+		long aUsed = Long.MAX_VALUE;
+
+		for (int i = 0; i < 5; i++) {
+
+			System.gc();
+			aUsed = Math.min(aUsed, aRuntime.totalMemory()
+					- aRuntime.freeMemory());
+
+		}
+
+		return aUsed;
+
+	}
+
+	private static void report(String aTitle, Map<String, double[]> theResults) {
+
+		StringBuilder aHeader = new StringBuilder(format("%1$-32s", "Variant"));
+		for (int aDepth : DEPTHS) {
+
+			aHeader.append(format("%1$16s", aDepth));
+
+		}
+
+		log(aTitle);
+		log(aHeader.toString());
+
+		for (Map.Entry<String, double[]> aResult : theResults.entrySet()) {
+
+			StringBuilder aRow = new StringBuilder(format("%1$-32s",
+					aResult.getKey()));
+			for (double aBytesPerElement : aResult.getValue()) {
+
+				aRow.append(format("%1$16.2f", aBytesPerElement));
+
+			}
+
+			log(aRow.toString());
+
+		}
+
+	}
+
+	private static void log(String aLine) {
+
+		Reporter.log(aLine);
+		System.out.println(aLine);
+
+	}
+
+	/**
+	 * 
+	 * Repeatedly collects garbage and records the greatest heap usage that
+	 * remains, until finished. A collection leaves the surviving objects
+	 * outside of the eden space, so the eden space is excluded -- it only
+	 * holds what the measured thread allocated after the collection. As a
+	 * single collection does not always reclaim everything, usage is measured
+	 * against the greatest of several samples taken before the queue is
+	 * created, rather than the least.
+	 * 
+	 */
+	private static final class PeakSampler extends Thread {
+
+		private final long myBaseline;
+
+		private volatile boolean myFinished;
+
+		private volatile long myPeak;
+
+		PeakSampler() {
+
+			super("footprint-peak-sampler");
+
+			long aBaseline = 0;
+			for (int i = 0; i < 5; i++) {
+
+				aBaseline = Math.max(aBaseline, sample());
+
+			}
+
+			this.myBaseline = aBaseline;
+			this.setDaemon(true);
+
+		}
+
+		@Override
+		public void run() {
+
+			while (this.myFinished == false) {
+
+				this.myPeak = Math.max(this.myPeak, sample()
+						- this.myBaseline);
+
+			}
+
+		}
+
+		private static long sample() {
+
+			System.gc();
+
+			long aUsed = 0;
+			for (MemoryPoolMXBean aPool : ManagementFactory
+					.getMemoryPoolMXBeans()) {
+
+				if (aPool.getType() == MemoryType.HEAP
+						&& aPool.getName().contains("Eden") == false) {
+
+					aUsed += aPool.getUsage().getUsed();
+
+				}
+
+			}
+
+			return aUsed;
+
+		}
+
+		void finish() throws InterruptedException {
+
+			this.myFinished = true;
+			this.join();
+
+		}
+
+	}
+
+	private abstract static class Variant<Q> {
+
+		private final String myName;
+
+		Variant(String aName) {
+
+			super();
+
+			this.myName = aName;
+
+		}
+
+		abstract Q create();
+
+		abstract Q offer(Q aQueue, long aValue);
+
+		abstract Q poll(Q aQueue);
+
+		abstract int size(Q aQueue);
+
+	}
+
+	private static final class QueueStackVariant extends
+			Variant<QueueStack<Long>> {
+
+		private final QueueStack.Strategy myStrategy;
+
+		QueueStackVariant(String aName, QueueStack.Strategy aStrategy) {
+
+			super(aName);
+
+			this.myStrategy = aStrategy;
+
+		}
+
+		QueueStack<Long> create() {
+
+			return this.myStrategy == null ? new QueueStack<Long>()
+					: new QueueStack<Long>(this.myStrategy);
+
+		}
+
+		QueueStack<Long> offer(QueueStack<Long> aQueue, long aValue) {
+
+			aQueue.offer(Long.valueOf(aValue));
+			return aQueue;
+
+		}
+
+		QueueStack<Long> poll(QueueStack<Long> aQueue) {
+
+			aQueue.poll();
+			return aQueue;
+
+		}
+
+		int size(QueueStack<Long> aQueue) {
+
+			return aQueue.size();
+
+		}
+
+	}
+
+}
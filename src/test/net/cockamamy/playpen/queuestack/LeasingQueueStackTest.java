@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static net.cockamamy.playpen.queuestack.TestUtilities.*;
+import static org.testng.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import net.cockamamy.playpen.queuestack.LeasingQueueStack.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class LeasingQueueStackTest {
+
+	private ManualTicker myTicker;
+
+	private LeasingQueueStack<Integer> myQueue;
+
+	@BeforeMethod
+	public void setUp() {
+
+		this.myTicker = new ManualTicker();
+		this.myQueue = new LeasingQueueStack<Integer>(10, TimeUnit.SECONDS,
+				this.myTicker);
+
+	}
+
+	@Test
+	public void testLeaseAck() {
+
+		assertNull(this.myQueue.pollLease());
+		assertTrue(this.myQueue.isEmpty());
+
+		this.myQueue.offer(1);
+		this.myQueue.offer(2);
+
+		Lease<Integer> aLease = this.myQueue.pollLease();
+		assertEquals(aLease.getElement(), Integer.valueOf(1));
+		assertEquals(aLease.getDeliveryCount(), 1);
+		assertEquals(this.myQueue.getPendingCount(), 1);
+		assertEquals(this.myQueue.getInFlightCount(), 1);
+		assertEquals(this.myQueue.size(), 2);
+
+		assertTrue(this.myQueue.ack(aLease.getId()));
+		assertFalse(this.myQueue.ack(aLease.getId()));
+		assertEquals(this.myQueue.getInFlightCount(), 0);
+
+		aLease = this.myQueue.pollLease();
+		assertEquals(aLease.getElement(), Integer.valueOf(2));
+		assertTrue(this.myQueue.ack(aLease.getId()));
+
+		assertNull(this.myQueue.pollLease());
+		assertTrue(this.myQueue.isEmpty());
+		assertFalse(this.myQueue.ack(-1));
+		assertFalse(this.myQueue.ack(100));
+
+	}
+
+	@Test
+	public void testRedelivery() {
+
+		this.myQueue.offer(1);
+		this.myQueue.offer(2);
+		this.myQueue.offer(3);
+
+		Lease<Integer> aFirstLease = this.myQueue.pollLease();
+		this.myTicker.advance(5, TimeUnit.SECONDS);
+		Lease<Integer> aSecondLease = this.myQueue.pollLease();
+
+		// Neither lease has expired
+		this.myTicker.advance(4, TimeUnit.SECONDS);
+		assertEquals(this.myQueue.pollLease().getElement(), Integer.valueOf(3));
+		assertNull(this.myQueue.pollLease());
+
+		// The first lease expires, and is redelivered under a new id
+		this.myTicker.advance(1, TimeUnit.SECONDS);
+		Lease<Integer> aRedelivery = this.myQueue.pollLease();
+		assertEquals(aRedelivery.getElement(), Integer.valueOf(1));
+		assertEquals(aRedelivery.getDeliveryCount(), 2);
+		assertFalse(aRedelivery.getId() == aFirstLease.getId());
+		assertFalse(this.myQueue.ack(aFirstLease.getId()));
+		assertNull(this.myQueue.pollLease());
+
+		assertTrue(this.myQueue.ack(aSecondLease.getId()));
+		assertTrue(this.myQueue.ack(aRedelivery.getId()));
+		assertEquals(this.myQueue.getInFlightCount(), 1);
+
+	}
+
+	@Test
+	public void testRedeliveryBeforePending() {
+
+		this.myQueue.offer(1);
+		this.myQueue.pollLease();
+		this.myQueue.offer(2);
+
+		this.myTicker.advance(10, TimeUnit.SECONDS);
+
+		assertEquals(this.myQueue.pollLease().getElement(), Integer.valueOf(1));
+		assertEquals(this.myQueue.pollLease().getElement(), Integer.valueOf(2));
+
+	}
+
+	@Test
+	public void testGrowth() {
+
+		List<Lease<Integer>> theLeases = new ArrayList<Lease<Integer>>();
+
+		for (int i = 0; i < 100; i++) {
+
+			this.myQueue.offer(i);
+			theLeases.add(this.myQueue.pollLease());
+
+		}
+
+		assertEquals(this.myQueue.getInFlightCount(), 100);
+
+		// Acknowledges the odd leases, so the head can not advance
+		for (int i = 1; i < theLeases.size(); i += 2) {
+
+			assertTrue(this.myQueue.ack(theLeases.get(i).getId()));
+
+		}
+
+		this.myTicker.advance(10, TimeUnit.SECONDS);
+
+		for (int i = 0; i < theLeases.size(); i += 2) {
+
+			Lease<Integer> aLease = this.myQueue.pollLease();
+			assertEquals(aLease.getElement(), Integer.valueOf(i));
+			assertEquals(aLease.getDeliveryCount(), 2);
+			assertTrue(this.myQueue.ack(aLease.getId()));
+
+		}
+
+		assertNull(this.myQueue.pollLease());
+		assertTrue(this.myQueue.isEmpty());
+
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testOfferNull() {
+
+		this.myQueue.offer(null);
+
+	}
+
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static org.testng.Assert.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class MappedQueueStackTest {
+
+	private static final int ELEMENT_COUNT = 10000;
+
+	private Path myPath;
+
+	@BeforeMethod
+	public void createPath() throws IOException {
+
+		this.myPath = Files.createTempFile("queue-stack", ".dat");
+
+	}
+
+	@AfterMethod
+	public void deletePath() throws IOException {
+
+		Files.deleteIfExists(this.myPath);
+
+	}
+
+	@Test
+	public void testOfferPoll() throws IOException {
+
+		MappedQueueStack aQueue = MappedQueueStack.create(this.myPath, 16, 8);
+
+		try {
+
+			assertTrue(aQueue.isEmpty());
+			assertNull(aQueue.poll());
+
+			for (int i = 0; i < 100; i++) {
+
+				assertTrue(aQueue.offer(encode(i)));
+				assertTrue(aQueue.offer(new byte[0]));
+				assertEquals(aQueue.size(), 2);
+				assertEquals(decode(aQueue.poll()), i);
+				assertEquals(aQueue.poll().length, 0);
+
+			}
+
+			assertTrue(aQueue.isEmpty());
+
+		} finally {
+
+			aQueue.close();
+
+		}
+
+	}
+
+	@Test
+	public void testFull() throws IOException {
+
+		MappedQueueStack aQueue = MappedQueueStack.create(this.myPath, 4, 8);
+
+		try {
+
+			for (int i = 0; i < 4; i++) {
+
+				assertTrue(aQueue.offer(encode(i)));
+
+			}
+
+			assertFalse(aQueue.offer(encode(4)));
+			assertEquals(aQueue.size(), 4);
+			assertEquals(decode(aQueue.poll()), 0);
+			assertTrue(aQueue.offer(encode(4)));
+
+			for (int i = 1; i < 5; i++) {
+
+				assertEquals(decode(aQueue.poll()), i);
+
+			}
+
+		} finally {
+
+			aQueue.close();
+
+		}
+
+	}
+
+	@Test
+	public void testOpen() throws IOException {
+
+		MappedQueueStack aConsumer = MappedQueueStack.create(this.myPath, 8,
+				16);
+		MappedQueueStack aProducer = MappedQueueStack.open(this.myPath);
+
+		try {
+
+			assertEquals(aProducer.getCapacity(), 8);
+			assertEquals(aProducer.getMaxElementSize(), 16);
+
+			assertTrue(aProducer.offer("shared".getBytes("UTF-8")));
+			assertEquals(new String(aConsumer.poll(), "UTF-8"), "shared");
+
+		} finally {
+
+			aProducer.close();
+			aConsumer.close();
+
+		}
+
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void testOpenUninitialized() throws IOException {
+
+		Files.write(this.myPath, new byte[1024]);
+
+		MappedQueueStack.open(this.myPath);
+
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testElementTooLarge() throws IOException {
+
+		MappedQueueStack aQueue = MappedQueueStack.create(this.myPath, 4, 8);
+
+		try {
+
+			aQueue.offer(new byte[9]);
+
+		} finally {
+
+			aQueue.close();
+
+		}
+
+	}
+
+	@Test
+	public void testConcurrentProducers() throws Exception {
+
+		final MappedQueueStack aQueue = MappedQueueStack.create(this.myPath,
+				64, 8);
+		ExecutorService anExecutor = Executors.newFixedThreadPool(4);
+
+		try {
+
+			for (int i = 0; i < 4; i++) {
+
+				final int aProducer = i;
+				anExecutor.execute(new Runnable() {
+
+					public void run() {
+
+						for (int j = 0; j < ELEMENT_COUNT; j++) {
+
+							byte[] anElement = encode(aProducer * ELEMENT_COUNT
+									+ j);
+
+							while (aQueue.offer(anElement) == false) {
+
+								Thread.yield();
+
+							}
+
+						}
+
+					}
+
+				});
+
+			}
+
+			int[] theLastElements = new int[] { -1, -1, -1, -1 };
+			Set<Integer> aReceived = new HashSet<Integer>();
+			long aDeadline = System.currentTimeMillis() + 30000;
+
+			while (aReceived.size() < 4 * ELEMENT_COUNT
+					&& System.currentTimeMillis() < aDeadline) {
+
+				byte[] anElement = aQueue.poll();
+
+				if (anElement != null) {
+
+					int aValue = decode(anElement);
+					int aProducer = aValue / ELEMENT_COUNT;
+
+					assertTrue(aReceived.add(aValue));
+					assertTrue(aValue > theLastElements[aProducer]);
+					theLastElements[aProducer] = aValue;
+
+				}
+
+			}
+
+			assertEquals(aReceived.size(), 4 * ELEMENT_COUNT);
+
+		} finally {
+
+			anExecutor.shutdown();
+			aQueue.close();
+
+		}
+
+	}
+
+	@Test
+	public void testTwoProcesses() throws Exception {
+
+		MappedQueueStack aQueue = MappedQueueStack.create(this.myPath, 256, 8);
+
+		try {
+
+			Process aProcess = new ProcessBuilder(Paths.get(
+					System.getProperty("java.home"), "bin", "java").toString(),
+					"-cp", System.getProperty("java.class.path"),
+					Producer.class.getName(), this.myPath.toString(),
+					Integer.toString(ELEMENT_COUNT)).redirectErrorStream(true)
+					.redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+
+			int anExpected = 0;
+			long aDeadline = System.currentTimeMillis() + 60000;
+
+			while (anExpected < ELEMENT_COUNT
+					&& System.currentTimeMillis() < aDeadline) {
+
+				byte[] anElement = aQueue.poll();
+
+				if (anElement != null) {
+
+					assertEquals(decode(anElement), anExpected++);
+
+				}
+
+			}
+
+			assertTrue(aProcess.waitFor(60, TimeUnit.SECONDS));
+			assertEquals(aProcess.exitValue(), 0);
+			assertEquals(anExpected, ELEMENT_COUNT);
+			assertTrue(aQueue.isEmpty());
+
+		} finally {
+
+			aQueue.close();
+
+		}
+
+	}
+
+	private static byte[] encode(int aValue) {
+
+		return ByteBuffer.allocate(4).putInt(aValue).array();
+
+	}
+
+	private static int decode(byte[] anElement) {
+
+		return ByteBuffer.wrap(anElement).getInt();
+
+	}
+
+	/**
+	 * 
+	 * Offers a sequence of integers to the queue in the file passed as the
+	 * first argument from a separate process.
+	 * 
+	 */
+	public static final class Producer {
+
+		public static void main(String[] theArguments) throws IOException {
+
+			MappedQueueStack aQueue = MappedQueueStack.open(Paths
+					.get(theArguments[0]));
+
+			try {
+
+				int aCount = Integer.parseInt(theArguments[1]);
+
+				for (int i = 0; i < aCount; i++) {
+
+					byte[] anElement = encode(i);
+
+					while (aQueue.offer(anElement) == false) {
+
+						Thread.yield();
+
+					}
+
+				}
+
+			} finally {
+
+				aQueue.close();
+
+			}
+
+		}
+
+	}
+
+}
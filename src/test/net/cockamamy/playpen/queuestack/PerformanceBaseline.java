@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static java.lang.String.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * 
+ * Records the samples of performance measurements, compares them against a
+ * committed baseline, and writes the results as CSV and JSON reports. A
+ * measurement that is absent from the baseline is reported as ungated and
+ * fails the check, as does a missing baseline. A measurement is a regression
+ * when its median exceeds the baseline median by more than the relative
+ * tolerance <em>and</em> by more than three times the combined
+ * (normal-scaled) median absolute deviation of the two runs, so that noisy
+ * measurements are not reported as regressions.
+ * 
+ * The following system properties (set by the <code>test</code> and
+ * <code>performance-baseline</code> Ant targets) control its behavior:
+ * 
+ * <ul>
+ * <li><code>performance.baseline.file</code> -- the baseline CSV file.</li>
+ * <li><code>performance.baseline.update</code> -- when <code>true</code>, the
+ * results of the run replace the baseline rather than being compared to
+ * it.</li>
+ * <li><code>performance.tolerance</code> -- the relative slowdown tolerated,
+ * e.g. <code>1.0</code> tolerates twice the baseline median.</li>
+ * <li><code>performance.report.dir</code> -- the directory to which the CSV
+ * and JSON reports are written.</li>
+ * </ul>
+ * 
+ */
+final class PerformanceBaseline {
+
+	private static final String CSV_HEADER = "name,median,mad,samples";
+
+	private static final double MAD_SCALE = 1.4826;
+
+	private static final double MAD_MULTIPLIER = 3;
+
+	private final Map<String, Measurement> myMeasurements;
+
+	PerformanceBaseline() {
+
+		super();
+
+		this.myMeasurements = new LinkedHashMap<String, Measurement>();
+
+	}
+
+	/**
+	 * 
+	 * Records the passed samples, <code>theSamples</code>, of the named
+	 * measurement.
+	 * 
+	 * @return The median of the samples
+	 * 
+	 */
+	double record(String aName, double[] theSamples) {
+
+		Measurement aMeasurement = new Measurement(theSamples);
+
+		this.myMeasurements.put(aName, aMeasurement);
+
+		return aMeasurement.myMedian;
+
+	}
+
+	/**
+	 * 
+	 * Compares the recorded measurements against the baseline (or records
+	 * them as the baseline) and writes the reports.
+	 * 
+	 * @return A description of each regression and of each measurement absent
+	 *         from the baseline, empty if there were none
+	 * 
+	 * @throws FileNotFoundException
+	 *             If the baseline does not exist and is not being recorded
+	 * 
+	 */
+	List<String> check() throws IOException {
+
+		File aBaselineFile = new File(System.getProperty(
+				"performance.baseline.file", "conf/performance-baseline.csv"));
+		boolean anUpdate = Boolean.getBoolean("performance.baseline.update");
+		double aTolerance = Double.parseDouble(System.getProperty(
+				"performance.tolerance", "1.0"));
+		File aReportDir = new File(System.getProperty(
+				"performance.report.dir", "build/report/performance"));
+
+		Map<String, Measurement> theBaselines = new HashMap<String, Measurement>();
+
+		if (anUpdate == false) {
+
+			if (aBaselineFile.exists() == false) {
+
+				throw new FileNotFoundException(format(Locale.ROOT,
+						"The performance baseline %1$s does not exist -- record it with 'ant performance-baseline'.",
+						aBaselineFile));
+
+			}
+
+			theBaselines = read(aBaselineFile);
+
+		}
+
+		List<String> theRegressions = new ArrayList<String>();
+		StringBuilder aCsv = new StringBuilder(
+				"name,median,mad,samples,baseline_median,baseline_mad,ratio,status\n");
+		StringBuilder aJson = new StringBuilder(format(Locale.ROOT,
+				"{\n  \"timestamp\": %1$s,\n  \"tolerance\": %2$s,\n  \"results\": [",
+				System.currentTimeMillis(), aTolerance));
+
+		for (Map.Entry<String, Measurement> anEntry : this.myMeasurements
+				.entrySet()) {
+
+			String aName = anEntry.getKey();
+			Measurement aMeasurement = anEntry.getValue();
+			Measurement aBaseline = theBaselines.get(aName);
+			String aStatus = anUpdate == true ? "recorded" : "ungated";
+			double aRatio = Double.NaN;
+
+			if (aBaseline == null && anUpdate == false) {
+
+				theRegressions.add(format(Locale.ROOT,
+						"%1$s: no baseline median has been recorded", aName));
+
+			} else if (aBaseline != null) {
+
+				aRatio = aMeasurement.myMedian / aBaseline.myMedian;
+				aStatus = "ok";
+
+				double aDelta = aMeasurement.myMedian - aBaseline.myMedian;
+				double aNoise = MAD_MULTIPLIER * MAD_SCALE
+						* (aMeasurement.myMad + aBaseline.myMad);
+
+				if (aDelta > aBaseline.myMedian * aTolerance && aDelta > aNoise) {
+
+					aStatus = "regression";
+					theRegressions.add(format(Locale.ROOT,
+							"%1$s: median of %2$.1f is %3$.2f times the baseline median of %4$.1f",
+							aName, aMeasurement.myMedian, aRatio,
+							aBaseline.myMedian));
+
+				}
+
+			}
+
+			aCsv.append(format(Locale.ROOT, "%1$s,%2$.3f,%3$.3f,%4$s,%5$s,%6$s,%7$s,%8$s\n",
+					aName, aMeasurement.myMedian, aMeasurement.myMad,
+					aMeasurement.mySampleCount,
+					aBaseline == null ? "" : format(Locale.ROOT, "%1$.3f", aBaseline.myMedian),
+					aBaseline == null ? "" : format(Locale.ROOT, "%1$.3f", aBaseline.myMad),
+					aBaseline == null ? "" : format(Locale.ROOT, "%1$.3f", aRatio), aStatus));
+
+			aJson.append(aJson.charAt(aJson.length() - 1) == '[' ? "\n" : ",\n");
+			aJson.append(format(Locale.ROOT,
+					"    {\"name\": \"%1$s\", \"median\": %2$.3f, \"mad\": %3$.3f, \"samples\": %4$s, \"baselineMedian\": %5$s, \"ratio\": %6$s, \"status\": \"%7$s\"}",
+					aName, aMeasurement.myMedian, aMeasurement.myMad,
+					aMeasurement.mySampleCount,
+					aBaseline == null ? "null" : format(Locale.ROOT, "%1$.3f", aBaseline.myMedian),
+					aBaseline == null ? "null" : format(Locale.ROOT, "%1$.3f", aRatio),
+					aStatus));
+
+		}
+
+		aJson.append("\n  ]\n}\n");
+
+		aReportDir.mkdirs();
+		write(new File(aReportDir, "performance.csv"), aCsv.toString());
+		write(new File(aReportDir, "performance.json"), aJson.toString());
+
+		if (anUpdate == true) {
+
+			if (aBaselineFile.getAbsoluteFile().getParentFile() != null) {
+
+				aBaselineFile.getAbsoluteFile().getParentFile().mkdirs();
+
+			}
+
+			StringBuilder aBaselineCsv = new StringBuilder(CSV_HEADER)
+					.append('\n');
+
+			for (Map.Entry<String, Measurement> anEntry : this.myMeasurements
+					.entrySet()) {
+
+				aBaselineCsv.append(format(Locale.ROOT, "%1$s,%2$.3f,%3$.3f,%4$s\n",
+						anEntry.getKey(), anEntry.getValue().myMedian,
+						anEntry.getValue().myMad,
+						anEntry.getValue().mySampleCount));
+
+			}
+
+			write(aBaselineFile, aBaselineCsv.toString());
+
+		}
+
+		return theRegressions;
+
+	}
+
+	private static Map<String, Measurement> read(File aFile) throws IOException {
+
+		Map<String, Measurement> theMeasurements = new HashMap<String, Measurement>();
+		BufferedReader aReader = new BufferedReader(new FileReader(aFile));
+
+		try {
+
+			String aLine = aReader.readLine();
+
+			if (CSV_HEADER.equals(aLine) == false) {
+
+				throw new IOException(format(Locale.ROOT,
+						"%1$s is not a performance baseline file.", aFile));
+
+			}
+
+			while ((aLine = aReader.readLine()) != null) {
+
+				if (aLine.trim().length() == 0) {
+
+					continue;
+
+				}
+
+				String[] theFields = aLine.split(",");
+				theMeasurements.put(theFields[0], new Measurement(
+						Double.parseDouble(theFields[1]),
+						Double.parseDouble(theFields[2]),
+						Integer.parseInt(theFields[3])));
+
+			}
+
+		} finally {
+
+			aReader.close();
+
+		}
+
+		return theMeasurements;
+
+	}
+
+	private static void write(File aFile, String aContent) throws IOException {
+
+		Writer aWriter = new FileWriter(aFile);
+
+		try {
+
+			aWriter.write(aContent);
+
+		} finally {
+
+			aWriter.close();
+
+		}
+
+	}
+
+	private static double median(double[] theSortedValues) {
+
+		int aMiddle = theSortedValues.length / 2;
+
+		if (theSortedValues.length % 2 == 1) {
+
+			return theSortedValues[aMiddle];
+
+		}
+
+		return (theSortedValues[aMiddle - 1] + theSortedValues[aMiddle]) / 2;
+
+	}
+
+	private static final class Measurement {
+
+		private final double myMedian;
+
+		private final double myMad;
+
+		private final int mySampleCount;
+
+		private Measurement(double[] theSamples) {
+
+			super();
+
+			if (theSamples.length == 0) {
+
+				throw new IllegalArgumentException(
+						"At least one sample must be recorded.");
+
+			}
+
+			double[] theSorted = theSamples.clone();
+			Arrays.sort(theSorted);
+
+			this.myMedian = median(theSorted);
+
+			double[] theDeviations = new double[theSorted.length];
+			for (int i = 0; i < theSorted.length; i++) {
+
+				theDeviations[i] = Math.abs(theSorted[i] - this.myMedian);
+
+			}
+			Arrays.sort(theDeviations);
+
+			this.myMad = median(theDeviations);
+			this.mySampleCount = theSamples.length;
+
+		}
+
+		private Measurement(double aMedian, double aMad, int aSampleCount) {
+
+			super();
+
+			this.myMedian = aMedian;
+			this.myMad = aMad;
+			this.mySampleCount = aSampleCount;
+
+		}
+
+	}
+
+}
@@ -32,6 +32,7 @@ import static java.lang.String.*;
 import static net.cockamamy.playpen.queuestack.TestUtilities.*;
 import static org.testng.Assert.*;
 
+import java.io.*;
 import java.util.*;
 
 import org.testng.annotations.*;
@@ -41,49 +42,82 @@ public final class PerformanceTest {
 
 	private static final String PERFORMANCE_PROVIDER = "offer_poll_data";
 
+	private static final int TRIAL_COUNT = 15;
+
+	private final PerformanceBaseline myBaseline = new PerformanceBaseline();
+
 	@Test(dataProvider = PERFORMANCE_PROVIDER)
 	public void testPerformance(Queue<Integer> theElements) {
 
 		assertNotNull(theElements,
 				"testOfferPoll(List) requires a non-null list of elements");
 
-		Timer anOfferTimer = new Timer();
-		anOfferTimer.start();
-		Queue<Integer> aQueue = new QueueStack<Integer>();
-		for (Integer anElement : theElements) {
+		// The first trial warms up the JIT and is not recorded
+		double[] theOfferSamples = new double[TRIAL_COUNT];
+		double[] thePollSamples = new double[TRIAL_COUNT];
 
-			aQueue.offer(anElement);
+		for (int i = -1; i < TRIAL_COUNT; i++) {
 
-		}
-		anOfferTimer.stop();
+			Timer anOfferTimer = new Timer();
+			anOfferTimer.start();
+			Queue<Integer> aQueue = new QueueStack<Integer>();
+			for (Integer anElement : theElements) {
+
+				aQueue.offer(anElement);
+
+			}
+			anOfferTimer.stop();
+
+			assertTrue(aQueue.containsAll(theElements));
+			assertEquals(aQueue.size(), theElements.size());
+
+			Timer aPollTimer = new Timer();
+			aPollTimer.start();
+			while (aQueue.isEmpty() == false) {
+
+				aQueue.poll();
 
-		assertTrue(aQueue.containsAll(theElements));
-		assertEquals(aQueue.size(), theElements.size());
+			}
+			aPollTimer.stop();
 
-		Timer aPollTimer = new Timer();
-		aPollTimer.start();
-		while (aQueue.isEmpty() == false) {
+			assertTrue(aQueue.isEmpty());
+			assertEquals(aQueue.size(), 0);
 
-			aQueue.poll();
+			if (i >= 0) {
+
+				theOfferSamples[i] = (double) anOfferTimer.getElasped()
+						/ theElements.size();
+				thePollSamples[i] = (double) aPollTimer.getElasped()
+						/ theElements.size();
+
+			}
 
 		}
-		aPollTimer.stop();
 
-		assertTrue(aQueue.isEmpty());
-		assertEquals(aQueue.size(), 0);
+		double anOfferMedian = this.myBaseline.record(
+				"offer." + theElements.size(), theOfferSamples);
+		double aPollMedian = this.myBaseline.record(
+				"poll." + theElements.size(), thePollSamples);
 
 		System.out
 				.println(format(
-						"Offer for %1$s elements is %2$s nanoseconds per element and %3$s nanoseconds total.",
-						theElements.size(),
-						(anOfferTimer.getElasped() / theElements.size()),
-						anOfferTimer.getElasped()));
+						"Offer for %1$s elements is a median of %2$.0f nanoseconds per element over %3$s trials.",
+						theElements.size(), anOfferMedian, TRIAL_COUNT));
 		System.out
 				.println(format(
-						"Poll for %1$s elements is %2$s nanoseconds per element and %3$s nanoseconds total",
-						theElements.size(),
-						(aPollTimer.getElasped() / theElements.size()),
-						aPollTimer.getElasped()));
+						"Poll for %1$s elements is a median of %2$.0f nanoseconds per element over %3$s trials.",
+						theElements.size(), aPollMedian, TRIAL_COUNT));
+
+	}
+
+	@Test(dependsOnMethods = "testPerformance")
+	public void testRegression() throws IOException {
+
+		List<String> theRegressions = this.myBaseline.check();
+
+		assertTrue(theRegressions.isEmpty(), format(
+				"Performance regressed against or was not gated by the baseline: %1$s",
+				theRegressions));
 
 	}
 
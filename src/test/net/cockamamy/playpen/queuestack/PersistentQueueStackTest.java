@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static net.cockamamy.playpen.queuestack.TestUtilities.*;
+import static org.testng.Assert.*;
+
+import java.util.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class PersistentQueueStackTest {
+
+	@Test
+	public void testEmpty() {
+
+		PersistentQueueStack<Integer> aQueue = PersistentQueueStack.empty();
+
+		assertTrue(aQueue.isEmpty());
+		assertEquals(aQueue.size(), 0);
+		assertNull(aQueue.peek());
+		assertSame(aQueue.poll(), aQueue);
+		assertFalse(aQueue.iterator().hasNext());
+
+	}
+
+	@Test
+	public void testOfferPoll() {
+
+		Queue<Integer> theElements = createIntegerQueue(100);
+		PersistentQueueStack<Integer> aQueue = PersistentQueueStack.empty();
+
+		for (Integer anElement : theElements) {
+
+			aQueue = aQueue.offer(anElement);
+
+		}
+
+		assertEquals(aQueue.size(), theElements.size());
+
+		for (Integer anElement : theElements) {
+
+			assertEquals(aQueue.peek(), anElement);
+			aQueue = aQueue.poll();
+
+		}
+
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	@Test
+	public void testInterleaved() {
+
+		Queue<Integer> anExpected = new LinkedList<Integer>();
+		PersistentQueueStack<Integer> aQueue = PersistentQueueStack.empty();
+		Random aRandom = new Random(42);
+
+		for (int i = 0; i < 10000; i++) {
+
+			if (aRandom.nextInt(3) != 0) {
+
+				aQueue = aQueue.offer(i);
+				anExpected.offer(i);
+
+			} else {
+
+				assertEquals(aQueue.peek(), anExpected.poll());
+				aQueue = aQueue.poll();
+
+			}
+
+			assertEquals(aQueue.size(), anExpected.size());
+
+		}
+
+		assertEquals(toList(aQueue), new ArrayList<Integer>(anExpected));
+
+	}
+
+	@Test
+	public void testSnapshotsAreUnaffected() {
+
+		PersistentQueueStack<Integer> aQueue = PersistentQueueStack.empty();
+
+		for (int i = 0; i < 10; i++) {
+
+			aQueue = aQueue.offer(i);
+
+		}
+
+		PersistentQueueStack<Integer> aSnapshot = aQueue.snapshot();
+
+		for (int i = 0; i < 5; i++) {
+
+			aQueue = aQueue.poll();
+
+		}
+
+		aQueue = aQueue.offer(10);
+
+		assertEquals(toList(aSnapshot), Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7,
+				8, 9));
+		assertEquals(toList(aQueue), Arrays.asList(5, 6, 7, 8, 9, 10));
+
+		// Versions derived from the same snapshot diverge independently
+		PersistentQueueStack<Integer> aBranch = aSnapshot.poll().offer(20);
+		PersistentQueueStack<Integer> thatBranch = aSnapshot.offer(30);
+
+		assertEquals(aBranch.peek(), Integer.valueOf(1));
+		assertEquals(aBranch.size(), 10);
+		assertEquals(thatBranch.peek(), Integer.valueOf(0));
+		assertEquals(thatBranch.size(), 11);
+		assertEquals(toList(aSnapshot).size(), 10);
+
+	}
+
+	@Test
+	public void testEquals() {
+
+		PersistentQueueStack<Integer> aQueue = PersistentQueueStack
+				.<Integer> empty().offer(1).offer(2);
+		PersistentQueueStack<Integer> thatQueue = PersistentQueueStack
+				.<Integer> empty().offer(0).offer(1).poll().offer(2);
+
+		assertEquals(aQueue, thatQueue);
+		assertEquals(aQueue.hashCode(), thatQueue.hashCode());
+		assertEquals(aQueue.toString(), "[1, 2]");
+		assertFalse(aQueue.equals(thatQueue.offer(3)));
+
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testOfferNull() {
+
+		PersistentQueueStack.<Integer> empty().offer(null);
+
+	}
+
+	private static List<Integer> toList(PersistentQueueStack<Integer> aQueue) {
+
+		List<Integer> aList = new ArrayList<Integer>();
+
+		for (Integer anElement : aQueue) {
+
+			aList.add(anElement);
+
+		}
+
+		return aList;
+
+	}
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static org.testng.Assert.*;
+
+import java.util.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class PriorityQueueStackTest {
+
+	@Test
+	public void testEmptyPoll() {
+
+		PriorityQueueStack<Integer> aQueue = new PriorityQueueStack<Integer>(4);
+
+		assertTrue(aQueue.isEmpty());
+		assertEquals(aQueue.size(), 0);
+		assertNull(aQueue.peek());
+		assertNull(aQueue.poll());
+
+	}
+
+	@Test
+	public void testPriorityOrder() {
+
+		PriorityQueueStack<Integer> aQueue = new PriorityQueueStack<Integer>(4);
+
+		aQueue.offer(30, 3);
+		aQueue.offer(10, 1);
+		aQueue.offer(31, 3);
+		aQueue.offer(0, 0);
+		aQueue.offer(11, 1);
+
+		assertEquals(aQueue.size(), 5);
+		assertEquals(aQueue.size(1), 2);
+		assertEquals(aQueue.peek(), Integer.valueOf(0));
+
+		assertEquals(aQueue.poll(), Integer.valueOf(0));
+		assertEquals(aQueue.poll(), Integer.valueOf(10));
+		assertEquals(aQueue.poll(), Integer.valueOf(11));
+
+		aQueue.offer(20, 2);
+
+		assertEquals(aQueue.poll(), Integer.valueOf(20));
+		assertEquals(aQueue.poll(), Integer.valueOf(30));
+		assertEquals(aQueue.poll(), Integer.valueOf(31));
+		assertNull(aQueue.poll());
+
+		assertTrue(aQueue.isEmpty());
+		assertEquals(aQueue.size(), 0);
+
+	}
+
+	@Test
+	public void testDrainTo() {
+
+		PriorityQueueStack<Integer> aQueue = new PriorityQueueStack<Integer>(3);
+
+		aQueue.offer(20, 2);
+		aQueue.offer(0, 0);
+		aQueue.offer(10, 1);
+		aQueue.offer(21, 2);
+		aQueue.offer(1, 0);
+
+		List<Integer> aList = new ArrayList<Integer>();
+
+		assertEquals(aQueue.drainTo(aList, 3), 3);
+		assertEquals(aList, Arrays.asList(0, 1, 10));
+		assertEquals(aQueue.size(), 2);
+
+		assertEquals(aQueue.drainTo(aList), 2);
+		assertEquals(aList, Arrays.asList(0, 1, 10, 20, 21));
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	@Test
+	public void testAging() {
+
+		PriorityQueueStack<Integer> aQueue = new PriorityQueueStack<Integer>(3,
+				2);
+
+		aQueue.offer(200, 2);
+
+		// The high priority level is never empty, so the low priority element
+		// is only delivered because it is promoted every other poll
+		List<Integer> aList = new ArrayList<Integer>();
+		for (int i = 0; i < 6; i++) {
+
+			aQueue.offer(i, 0);
+			aList.add(aQueue.poll());
+
+		}
+
+		assertEquals(aList, Arrays.asList(0, 1, 2, 3, 200, 4));
+
+	}
+
+	@Test
+	public void testStarvationWithoutAging() {
+
+		PriorityQueueStack<Integer> aQueue = new PriorityQueueStack<Integer>(3);
+
+		aQueue.offer(200, 2);
+
+		for (int i = 0; i < 6; i++) {
+
+			aQueue.offer(i, 0);
+			assertEquals(aQueue.poll(), Integer.valueOf(i));
+
+		}
+
+		assertEquals(aQueue.size(2), 1);
+
+	}
+
+	@Test
+	public void testClear() {
+
+		PriorityQueueStack<Integer> aQueue = new PriorityQueueStack<Integer>(2);
+
+		aQueue.offer(1, 0);
+		aQueue.offer(2, 1);
+		aQueue.clear();
+
+		assertTrue(aQueue.isEmpty());
+		assertEquals(aQueue.size(), 0);
+		assertNull(aQueue.poll());
+
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testInvalidLevel() {
+
+		new PriorityQueueStack<Integer>(2).offer(1, 2);
+
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void testTooManyLevels() {
+
+		new PriorityQueueStack<Integer>(PriorityQueueStack.MAX_LEVELS + 1);
+
+	}
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static org.testng.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class QueueStackPublisherTest {
+
+	@Test
+	public void testDeliveryHonorsDemand() {
+
+		QueueStackPublisher<Integer> aPublisher = new QueueStackPublisher<Integer>(
+				4);
+		RecordingSubscriber aSubscriber = new RecordingSubscriber();
+
+		for (int i = 0; i < 10; i++) {
+
+			aPublisher.offer(i);
+
+		}
+
+		aPublisher.subscribe(aSubscriber);
+
+		assertTrue(aSubscriber.myElements.isEmpty());
+		assertEquals(aPublisher.size(), 10);
+
+		aSubscriber.mySubscription.request(3);
+
+		assertEquals(aSubscriber.myElements, Arrays.asList(0, 1, 2));
+		assertEquals(aPublisher.size(), 7);
+
+		aSubscriber.mySubscription.request(100);
+
+		assertEquals(aSubscriber.myElements.size(), 10);
+		assertEquals(aPublisher.size(), 0);
+
+		// Outstanding demand is satisfied as elements are offered
+		aPublisher.offer(10);
+
+		assertEquals(aSubscriber.myElements.get(10), Integer.valueOf(10));
+		assertFalse(aSubscriber.myCompleted);
+
+		aPublisher.close();
+
+		assertTrue(aSubscriber.myCompleted);
+
+	}
+
+	@Test
+	public void testCompletionAwaitsDelivery() {
+
+		QueueStackPublisher<Integer> aPublisher = new QueueStackPublisher<Integer>();
+		RecordingSubscriber aSubscriber = new RecordingSubscriber();
+
+		aPublisher.subscribe(aSubscriber);
+		aPublisher.offer(1);
+		aPublisher.close();
+
+		assertFalse(aSubscriber.myCompleted);
+
+		aSubscriber.mySubscription.request(1);
+
+		assertEquals(aSubscriber.myElements, Arrays.asList(1));
+		assertTrue(aSubscriber.myCompleted);
+
+	}
+
+	@Test
+	public void testCancel() {
+
+		QueueStackPublisher<Integer> aPublisher = new QueueStackPublisher<Integer>();
+		RecordingSubscriber aSubscriber = new RecordingSubscriber();
+
+		aPublisher.subscribe(aSubscriber);
+		aSubscriber.mySubscription.request(Long.MAX_VALUE);
+		aPublisher.offer(1);
+		aSubscriber.mySubscription.cancel();
+
+		assertFalse(aPublisher.offer(2));
+		assertEquals(aPublisher.size(), 0);
+		assertEquals(aSubscriber.myElements, Arrays.asList(1));
+
+	}
+
+	@Test
+	public void testInvalidRequest() {
+
+		QueueStackPublisher<Integer> aPublisher = new QueueStackPublisher<Integer>();
+		RecordingSubscriber aSubscriber = new RecordingSubscriber();
+
+		aPublisher.subscribe(aSubscriber);
+		aSubscriber.mySubscription.request(0);
+
+		assertTrue(aSubscriber.myError instanceof IllegalArgumentException);
+
+	}
+
+	@Test
+	public void testInvalidRequestDuringDelivery() {
+
+		QueueStackPublisher<Integer> aPublisher = new QueueStackPublisher<Integer>();
+		final List<String> theSignals = new ArrayList<String>();
+
+		aPublisher.subscribe(new Flow.Subscriber<Integer>() {
+
+			private Flow.Subscription mySubscription;
+
+			public void onSubscribe(Flow.Subscription aSubscription) {
+
+				this.mySubscription = aSubscription;
+				aSubscription.request(10);
+
+			}
+
+			public void onNext(Integer anObject) {
+
+				theSignals.add("onNext " + anObject);
+				this.mySubscription.request(0);
+				theSignals.add("request returned");
+
+			}
+
+			public void onError(Throwable aThrowable) {
+
+				theSignals.add("onError");
+
+			}
+
+			public void onComplete() {
+
+				theSignals.add("onComplete");
+
+			}
+
+		});
+
+		aPublisher.offer(1);
+
+		// The error follows, rather than interrupts, the delivery of the
+		// element, and no further elements are delivered
+		assertEquals(theSignals,
+				Arrays.asList("onNext 1", "request returned", "onError"));
+		assertFalse(aPublisher.offer(2));
+		assertEquals(theSignals.size(), 3);
+
+	}
+
+	@Test
+	public void testSecondSubscriberRejected() {
+
+		QueueStackPublisher<Integer> aPublisher = new QueueStackPublisher<Integer>();
+		RecordingSubscriber aSubscriber = new RecordingSubscriber();
+		RecordingSubscriber thatSubscriber = new RecordingSubscriber();
+
+		aPublisher.subscribe(aSubscriber);
+		aPublisher.subscribe(thatSubscriber);
+
+		assertNull(aSubscriber.myError);
+		assertTrue(thatSubscriber.myError instanceof IllegalStateException);
+
+	}
+
+	@Test
+	public void testConcurrentOffer() throws Exception {
+
+		final QueueStackPublisher<Integer> aPublisher = new QueueStackPublisher<Integer>(
+				16);
+		QueueStackSubscriber<Integer> aSubscriber = new QueueStackSubscriber<Integer>(
+				32);
+
+		aPublisher.subscribe(aSubscriber);
+
+		ExecutorService anExecutor = Executors.newFixedThreadPool(4);
+		for (int i = 0; i < 4; i++) {
+
+			final int aProducer = i;
+			anExecutor.execute(new Runnable() {
+
+				public void run() {
+
+					for (int j = 0; j < 1000; j++) {
+
+						aPublisher.offer(aProducer * 1000 + j);
+
+					}
+
+				}
+
+			});
+
+		}
+		anExecutor.shutdown();
+
+		Set<Integer> aReceived = new HashSet<Integer>();
+		long aDeadline = System.currentTimeMillis() + 10000;
+		while (aReceived.size() < 4000
+				&& System.currentTimeMillis() < aDeadline) {
+
+			Integer anElement = aSubscriber.poll();
+
+			if (anElement != null) {
+
+				assertTrue(aReceived.add(anElement));
+
+			}
+
+		}
+
+		assertTrue(anExecutor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(aReceived.size(), 4000);
+		assertTrue(aSubscriber.size() <= 32);
+
+	}
+
+	private static final class RecordingSubscriber implements
+			Flow.Subscriber<Integer> {
+
+		private final List<Integer> myElements = new ArrayList<Integer>();
+
+		private Flow.Subscription mySubscription;
+
+		private boolean myCompleted;
+
+		private Throwable myError;
+
+		public void onSubscribe(Flow.Subscription aSubscription) {
+
+			this.mySubscription = aSubscription;
+
+		}
+
+		public void onNext(Integer anObject) {
+
+			this.myElements.add(anObject);
+
+		}
+
+		public void onError(Throwable aThrowable) {
+
+			this.myError = aThrowable;
+
+		}
+
+		public void onComplete() {
+
+			this.myCompleted = true;
+
+		}
+
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static org.testng.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.testng.annotations.*;
+
+@Test(groups = "unit")
+public class QueueStackSubscriberTest {
+
+	@Test
+	public void testDemandFollowsCapacity() {
+
+		QueueStackSubscriber<Integer> aSubscriber = new QueueStackSubscriber<Integer>(
+				8);
+		RecordingSubscription aSubscription = new RecordingSubscription();
+
+		aSubscriber.onSubscribe(aSubscription);
+
+		assertEquals(aSubscription.myRequests, Arrays.asList(8L));
+
+		for (int i = 0; i < 8; i++) {
+
+			aSubscriber.onNext(i);
+
+		}
+
+		assertEquals(aSubscriber.size(), 8);
+
+		// Demand is only replenished once half of the capacity is free
+		for (int i = 0; i < 3; i++) {
+
+			assertEquals(aSubscriber.poll(), Integer.valueOf(i));
+
+		}
+
+		assertEquals(aSubscription.myRequests, Arrays.asList(8L));
+
+		assertEquals(aSubscriber.poll(), Integer.valueOf(3));
+		assertEquals(aSubscription.myRequests, Arrays.asList(8L, 4L));
+
+	}
+
+	@Test
+	public void testCompletion() {
+
+		QueueStackSubscriber<Integer> aSubscriber = new QueueStackSubscriber<Integer>(
+				4);
+
+		aSubscriber.onSubscribe(new RecordingSubscription());
+		aSubscriber.onNext(1);
+		aSubscriber.onComplete();
+
+		assertFalse(aSubscriber.isDone());
+		assertEquals(aSubscriber.poll(), Integer.valueOf(1));
+		assertTrue(aSubscriber.isDone());
+		assertNull(aSubscriber.getError());
+
+	}
+
+	@Test
+	public void testError() {
+
+		QueueStackSubscriber<Integer> aSubscriber = new QueueStackSubscriber<Integer>(
+				4);
+		Exception anError = new Exception();
+
+		aSubscriber.onSubscribe(new RecordingSubscription());
+		aSubscriber.onError(anError);
+
+		assertTrue(aSubscriber.isDone());
+		assertSame(aSubscriber.getError(), anError);
+
+	}
+
+	@Test
+	public void testOverflow() {
+
+		QueueStackSubscriber<Integer> aSubscriber = new QueueStackSubscriber<Integer>(
+				1);
+		RecordingSubscription aSubscription = new RecordingSubscription();
+
+		aSubscriber.onSubscribe(aSubscription);
+		aSubscriber.onNext(1);
+		aSubscriber.onNext(2);
+
+		assertTrue(aSubscription.myCancelled);
+		assertTrue(aSubscriber.getError() instanceof IllegalStateException);
+		assertEquals(aSubscriber.size(), 1);
+
+		// Elements signaled after the cancellation are discarded
+		aSubscriber.onNext(3);
+		assertEquals(aSubscriber.poll(), Integer.valueOf(1));
+		assertTrue(aSubscriber.isDone());
+
+	}
+
+	@Test
+	public void testSecondSubscriptionCancelled() {
+
+		QueueStackSubscriber<Integer> aSubscriber = new QueueStackSubscriber<Integer>(
+				4);
+		RecordingSubscription aSubscription = new RecordingSubscription();
+		RecordingSubscription thatSubscription = new RecordingSubscription();
+
+		aSubscriber.onSubscribe(aSubscription);
+		aSubscriber.onSubscribe(thatSubscription);
+
+		assertFalse(aSubscription.myCancelled);
+		assertTrue(thatSubscription.myCancelled);
+
+	}
+
+	@Test
+	public void testFromSubmissionPublisher() throws Exception {
+
+		QueueStackSubscriber<Integer> aSubscriber = new QueueStackSubscriber<Integer>(
+				16);
+		final SubmissionPublisher<Integer> aPublisher = new SubmissionPublisher<Integer>();
+
+		aPublisher.subscribe(aSubscriber);
+
+		// Submission blocks once the subscriber stops signaling demand, so
+		// elements are submitted while the buffer is being polled
+		Thread aProducer = new Thread(new Runnable() {
+
+			public void run() {
+
+				for (int i = 0; i < 1000; i++) {
+
+					aPublisher.submit(i);
+
+				}
+				aPublisher.close();
+
+			}
+
+		});
+		aProducer.start();
+
+		long aDeadline = System.currentTimeMillis() + 10000;
+		int anExpected = 0;
+		while (aSubscriber.isDone() == false
+				&& System.currentTimeMillis() < aDeadline) {
+
+			Integer anElement = aSubscriber.poll();
+
+			if (anElement != null) {
+
+				assertEquals(anElement, Integer.valueOf(anExpected++));
+				assertTrue(aSubscriber.size() <= 16);
+
+			}
+
+		}
+
+		aProducer.join(10000);
+
+		assertEquals(anExpected, 1000);
+
+	}
+
+	private static final class RecordingSubscription implements
+			Flow.Subscription {
+
+		private final List<Long> myRequests = new ArrayList<Long>();
+
+		private boolean myCancelled;
+
+		public void request(long aCount) {
+
+			this.myRequests.add(aCount);
+
+		}
+
+		public void cancel() {
+
+			this.myCancelled = true;
+
+		}
+
+	}
+
+}
@@ -32,6 +32,7 @@ import static net.cockamamy.playpen.queuestack.TestUtilities.*;
 import static org.testng.Assert.*;
 
 import java.util.*;
+import java.util.function.*;
 
 import org.testng.annotations.*;
 
@@ -40,6 +41,18 @@ public class QueueStackTest {
 
 	private static final String ELEMENT_PROVIDER = "elements";
 
+	private static final String STRATEGY_PROVIDER = "strategies";
+
+	private static final Weigher<Integer> INTEGER_WEIGHER = new Weigher<Integer>() {
+
+		public long weigh(Integer anElement) {
+
+			return anElement;
+
+		}
+
+	};
+
 	@Test(dataProvider = ELEMENT_PROVIDER)
 	public void testAddAll(Queue<Integer> theElements, Queue<Integer> aQueue) {
 
@@ -49,6 +62,7 @@ public class QueueStackTest {
 		assertTrue(aQueue.isEmpty());
 		assertEquals(aQueue.size(), 0);
 
+		assertFalse(aQueue.addAll(Collections.<Integer> emptyList()));
 		assertTrue(aQueue.addAll(theElements));
 
 		assertTrue(aQueue.containsAll(theElements));
@@ -329,12 +343,551 @@ public class QueueStackTest {
 
 	}
 
+	@Test(dataProvider = STRATEGY_PROVIDER)
+	public void testInterleaved(QueueStack<Integer> aQueue) {
+
+		Queue<Integer> anExpected = new LinkedList<Integer>();
+		Random aRandom = new Random(42);
+
+		for (int i = 0; i < 10000; i++) {
+
+			if (aRandom.nextInt(3) != 0) {
+
+				assertTrue(aQueue.offer(i));
+				anExpected.offer(i);
+
+			} else {
+
+				assertEquals(aQueue.peek(), anExpected.peek());
+				assertEquals(aQueue.poll(), anExpected.poll());
+
+			}
+
+			assertEquals(aQueue.size(), anExpected.size());
+
+			if (i % 1000 == 0) {
+
+				assertEquals(aQueue.toArray(), anExpected.toArray());
+
+			}
+
+		}
+
+		while (anExpected.isEmpty() == false) {
+
+			assertEquals(aQueue.poll(), anExpected.poll());
+
+		}
+
+		assertTrue(aQueue.isEmpty());
+		assertNull(aQueue.peek());
+
+	}
+
+	@Test
+	public void testAdaptiveStrategy() {
+
+		QueueStack<Integer> aQueue = new QueueStack<Integer>();
+
+		assertEquals(aQueue.getStrategy(), QueueStack.Strategy.FLIP);
+		assertTrue(aQueue.getMetrics().isAdaptive());
+
+		aQueue.addAll(createIntegerQueue(1000));
+
+		// Finely interleaved offers and polls switch to the two stack
+		// strategy, after which a flip occurs only once the poll stack is
+		// exhausted
+		for (int i = 1000; i < 3000; i++) {
+
+			aQueue.offer(i);
+			assertEquals(aQueue.poll(), Integer.valueOf(i - 1000));
+
+		}
+
+		QueueStackMetrics aMetrics = aQueue.getMetrics();
+
+		assertEquals(aMetrics.getStrategy(), QueueStack.Strategy.TWO_STACK);
+		assertEquals(aMetrics.getStrategySwitchCount(), 1);
+		assertEquals(aMetrics.getOfferCount(), 3000);
+		assertEquals(aMetrics.getPollCount(), 2000);
+		assertTrue(aMetrics.getMeanRunLength() < QueueStack.INTERLEAVED_RUN_LENGTH);
+		assertTrue(aMetrics.getFlipCount() < 100);
+
+		// Long bursts switch back to the flip strategy
+		for (int i = 0; i < 4; i++) {
+
+			aQueue.addAll(createIntegerQueue(1000));
+
+			while (aQueue.isEmpty() == false) {
+
+				aQueue.poll();
+
+			}
+
+		}
+
+		assertEquals(aQueue.getStrategy(), QueueStack.Strategy.FLIP);
+		assertEquals(aQueue.getMetrics().getStrategySwitchCount(), 2);
+
+	}
+
+	@Test
+	public void testFixedStrategy() {
+
+		QueueStack<Integer> aQueue = new QueueStack<Integer>(
+				QueueStack.Strategy.FLIP);
+
+		for (int i = 0; i < 100; i++) {
+
+			aQueue.offer(i);
+			aQueue.poll();
+
+		}
+
+		assertEquals(aQueue.getStrategy(), QueueStack.Strategy.FLIP);
+		assertFalse(aQueue.getMetrics().isAdaptive());
+		assertEquals(aQueue.getMetrics().getStrategySwitchCount(), 0);
+
+	}
+
+	@Test
+	public void testWeightReject() {
+
+		QueueStack<Integer> aQueue = new QueueStack<Integer>(
+				INTEGER_WEIGHER, 10, QueueStack.OverflowPolicy.REJECT);
+
+		assertTrue(aQueue.offer(4));
+		assertTrue(aQueue.offer(6));
+		assertFalse(aQueue.offer(1));
+		assertEquals(aQueue.getMetrics().getWeight(), 10);
+
+		try {
+
+			aQueue.add(1);
+			fail("Adding beyond the weight budget should fail.");
+
+		} catch (IllegalStateException e) {
+
+			// Expected
+
+		}
+
+		assertEquals(aQueue.poll(), Integer.valueOf(4));
+		assertTrue(aQueue.offer(3));
+		assertEquals(aQueue.getMetrics().getWeight(), 9);
+		assertEquals(aQueue.getMetrics().getRejectedCount(), 2);
+		assertEquals(aQueue.getMetrics().getEvictedCount(), 0);
+
+	}
+
+	@Test
+	public void testWeightDropOldest() {
+
+		QueueStack<Integer> aQueue = new QueueStack<Integer>(
+				INTEGER_WEIGHER, 10, QueueStack.OverflowPolicy.DROP_OLDEST);
+
+		aQueue.addAll(Arrays.asList(1, 2, 3, 4));
+		assertTrue(aQueue.offer(3));
+		assertEquals(aQueue.toArray(), new Object[] { 3, 4, 3 });
+
+		// The oldest elements are now in the poll stack
+		assertEquals(aQueue.peek(), Integer.valueOf(3));
+		assertTrue(aQueue.offer(7));
+		assertEquals(aQueue.toArray(), new Object[] { 3, 7 });
+
+		assertFalse(aQueue.offer(11));
+		assertEquals(aQueue.toArray(), new Object[] { 3, 7 });
+
+		QueueStackMetrics aMetrics = aQueue.getMetrics();
+		assertEquals(aMetrics.getWeight(), 10);
+		assertEquals(aMetrics.getEvictedCount(), 4);
+		assertEquals(aMetrics.getRejectedCount(), 1);
+
+	}
+
+	@Test
+	public void testWeightTracking() {
+
+		QueueStack<Integer> aQueue = new QueueStack<Integer>(
+				INTEGER_WEIGHER, 100, QueueStack.OverflowPolicy.REJECT);
+
+		aQueue.addAll(Arrays.asList(1, 2, 3, 4, 5, 6));
+		assertEquals(aQueue.getMetrics().getWeight(), 21);
+
+		assertTrue(aQueue.remove(Integer.valueOf(2)));
+		assertFalse(aQueue.remove(Integer.valueOf(2)));
+		assertEquals(aQueue.getMetrics().getWeight(), 19);
+
+		aQueue.removeAll(Arrays.asList(1, 6));
+		assertEquals(aQueue.getMetrics().getWeight(), 12);
+
+		aQueue.retainAll(Arrays.asList(3, 4));
+		assertEquals(aQueue.getMetrics().getWeight(), 7);
+
+		Iterator<Integer> anIterator = aQueue.iterator();
+		int aRemoved = anIterator.next();
+		anIterator.remove();
+		assertEquals(aQueue.getMetrics().getWeight(), 7 - aRemoved);
+
+		assertEquals(aQueue.remove(), Integer.valueOf(7 - aRemoved));
+		assertEquals(aQueue.getMetrics().getWeight(), 0);
+
+		aQueue.offer(50);
+		aQueue.clear();
+		assertEquals(aQueue.getMetrics().getWeight(), 0);
+		assertEquals(aQueue.getWeightBudget(), 100);
+
+	}
+
+	@Test
+	public void testWeighOncePerOffer() {
+
+		final int[] aWeighCount = new int[1];
+
+		QueueStack<Integer> aQueue = new QueueStack<Integer>(
+				new Weigher<Integer>() {
+
+					public long weigh(Integer anElement) {
+
+						aWeighCount[0]++;
+						return anElement;
+
+					}
+
+				}, 10, QueueStack.OverflowPolicy.REJECT);
+
+		assertTrue(aQueue.addAll(Arrays.asList(1, 2, 3)));
+		assertEquals(aWeighCount[0], 3);
+
+		assertFalse(aQueue.offer(5));
+		assertEquals(aWeighCount[0], 4);
+
+		assertTrue(aQueue.offer(4));
+		assertEquals(aWeighCount[0], 5);
+		assertEquals(aQueue.getMetrics().getWeight(), 10);
+
+	}
+
+	@Test(dataProvider = STRATEGY_PROVIDER)
+	public void testDrain(QueueStack<Integer> aQueue) {
+
+		final List<Integer> theDrained = new ArrayList<Integer>();
+		Consumer<Integer> aConsumer = new Consumer<Integer>() {
+
+			public void accept(Integer anElement) {
+
+				theDrained.add(anElement);
+
+			}
+
+		};
+
+		assertEquals(aQueue.drain(aConsumer), 0);
+
+		fillBothStacks(aQueue);
+		long aPollCount = aQueue.getMetrics().getPollCount();
+
+		assertEquals(aQueue.drain(aConsumer, 5), 5);
+		assertEquals(theDrained, Arrays.asList(1, 2, 3, 4, 5));
+		assertEquals(aQueue.size(), 14);
+		assertEquals(aQueue.peek(), Integer.valueOf(6));
+
+		theDrained.clear();
+		assertEquals(aQueue.drain(aConsumer), 14);
+		assertEquals(theDrained.size(), 14);
+
+		for (int i = 0; i < theDrained.size(); i++) {
+
+			assertEquals(theDrained.get(i), Integer.valueOf(i + 6));
+
+		}
+
+		assertTrue(aQueue.isEmpty());
+		assertNull(aQueue.poll());
+		assertEquals(aQueue.getMetrics().getPollCount(), aPollCount + 20);
+
+		aQueue.offer(20);
+		assertEquals(aQueue.poll(), Integer.valueOf(20));
+
+	}
+
+	@Test
+	public void testDrainBacklogWithoutFlipping() {
+
+		final int[] aNext = new int[1];
+		Consumer<Integer> aConsumer = new Consumer<Integer>() {
+
+			public void accept(Integer anElement) {
+
+				assertEquals(anElement, Integer.valueOf(aNext[0]++));
+
+			}
+
+		};
+
+		for (QueueStack<Integer> aQueue : Arrays.asList(
+				new QueueStack<Integer>(),
+				new QueueStack<Integer>(QueueStack.Strategy.FLIP))) {
+
+			aNext[0] = 0;
+			int anOffered = 0;
+
+			while (anOffered < 10000) {
+
+				aQueue.offer(anOffered++);
+
+			}
+
+			// Each tick offers and drains a batch while the backlog remains
+			for (int i = 0; i < 100; i++) {
+
+				for (int j = 0; j < 64; j++) {
+
+					aQueue.offer(anOffered++);
+
+				}
+
+				assertEquals(aQueue.drain(aConsumer, 64), 64);
+
+			}
+
+			assertEquals(aQueue.size(), 10000);
+			assertEquals(aQueue.getMetrics().getFlipCount(), 0);
+
+		}
+
+	}
+
+	@Test(dataProvider = STRATEGY_PROVIDER)
+	public void testDrainReentrance(final QueueStack<Integer> aQueue) {
+
+		fillBothStacks(aQueue);
+
+		final List<Integer> theDrained = new ArrayList<Integer>();
+
+		// Re-enters poll at the tenth element, and then offer at the fifteenth
+		for (final int aTrigger : new int[] { 10, 15 }) {
+
+			try {
+
+				aQueue.drain(new Consumer<Integer>() {
+
+					public void accept(Integer anElement) {
+
+						theDrained.add(anElement);
+
+						if (anElement == 10) {
+
+							aQueue.poll();
+
+						} else if (anElement == aTrigger) {
+
+							aQueue.offer(anElement);
+
+						}
+
+					}
+
+				});
+				fail("Modifying the queue during a drain should fail.");
+
+			} catch (ConcurrentModificationException e) {
+
+				// Expected
+
+			}
+
+		}
+
+		assertEquals(theDrained.size(), 15);
+		assertEquals(theDrained.get(14), Integer.valueOf(15));
+
+		// The undrained elements remain intact following the failures
+		assertEquals(aQueue.size(), 4);
+		assertEquals(aQueue.toArray(), new Object[] { 16, 17, 18, 19 });
+		assertEquals(aQueue.poll(), Integer.valueOf(16));
+		aQueue.offer(20);
+		assertEquals(aQueue.toArray(), new Object[] { 17, 18, 19, 20 });
+
+	}
+
+	@Test
+	public void testDrainWeight() {
+
+		QueueStack<Integer> aQueue = new QueueStack<Integer>(
+				INTEGER_WEIGHER, 100, QueueStack.OverflowPolicy.REJECT);
+		aQueue.addAll(Arrays.asList(1, 2, 3, 4));
+
+		aQueue.drain(new Consumer<Integer>() {
+
+			public void accept(Integer anElement) {
+
+				// Discards the element
+
+			}
+
+		}, 3);
+
+		assertEquals(aQueue.getMetrics().getWeight(), 4);
+
+	}
+
+	@Test(dataProvider = STRATEGY_PROVIDER)
+	public void testCursor(QueueStack<Integer> aQueue) {
+
+		QueueStack<Integer>.Cursor aCursor = aQueue.cursor();
+		assertFalse(aCursor.hasNext());
+
+		fillBothStacks(aQueue);
+		long aFlipCount = aQueue.getMetrics().getFlipCount();
+
+		for (int aPass = 0; aPass < 2; aPass++) {
+
+			aCursor.reset();
+
+			for (int i = 1; i < 20; i++) {
+
+				assertTrue(aCursor.hasNext());
+				assertEquals(aCursor.next(), Integer.valueOf(i));
+
+			}
+
+			assertFalse(aCursor.hasNext());
+
+		}
+
+		assertEquals(aQueue.getMetrics().getFlipCount(), aFlipCount);
+		assertEquals(aQueue.size(), 19);
+
+		aCursor.reset();
+		aQueue.offer(20);
+
+		try {
+
+			aCursor.next();
+			fail("A cursor over a modified queue should fail.");
+
+		} catch (ConcurrentModificationException e) {
+
+			// Expected
+
+		}
+
+	}
+
+	@Test(dataProvider = STRATEGY_PROVIDER)
+	public void testReadsDoNotFlip(QueueStack<Integer> aQueue) {
+
+		fillBothStacks(aQueue);
+		long aFlipCount = aQueue.getMetrics().getFlipCount();
+
+		QueueStack<Integer> thatQueue = new QueueStack<Integer>();
+
+		for (int i = 1; i < 20; i++) {
+
+			thatQueue.offer(i);
+
+		}
+
+		assertTrue(aQueue.contains(1));
+		assertTrue(aQueue.contains(19));
+		assertFalse(aQueue.contains(0));
+		assertTrue(aQueue.containsAll(Arrays.asList(5, 15)));
+		assertEquals(aQueue.toString(), thatQueue.toString());
+		assertEquals(aQueue.toArray(new Integer[0]), thatQueue.toArray());
+		assertEquals(aQueue, thatQueue);
+		assertEquals(aQueue.hashCode(), thatQueue.hashCode());
+
+		int anExpected = 1;
+
+		for (Iterator<Integer> anIterator = aQueue.iterator(); anIterator
+				.hasNext() == true; anExpected++) {
+
+			assertEquals(anIterator.next(), Integer.valueOf(anExpected));
+
+			if (anExpected % 2 == 0) {
+
+				anIterator.remove();
+
+			}
+
+		}
+
+		assertEquals(anExpected, 20);
+		assertEquals(aQueue.toArray(), new Object[] { 1, 3, 5, 7, 9, 11, 13,
+				15, 17, 19 });
+
+		assertEquals(aQueue.getMetrics().getFlipCount(), aFlipCount);
+
+	}
+
+	@Test(dataProvider = STRATEGY_PROVIDER)
+	public void testRemoveFirstOccurrence(QueueStack<Integer> aQueue) {
+
+		aQueue.addAll(Arrays.asList(1, 2, 1));
+		aQueue.poll();
+		aQueue.addAll(Arrays.asList(2, 3));
+
+		assertTrue(aQueue.remove(Integer.valueOf(2)));
+		assertTrue(aQueue.remove(Integer.valueOf(3)));
+		assertFalse(aQueue.remove(Integer.valueOf(3)));
+		assertEquals(aQueue.toArray(), new Object[] { 1, 2 });
+
+		assertTrue(aQueue.removeAll(Arrays.asList(1)));
+		assertFalse(aQueue.retainAll(Arrays.asList(2)));
+		assertEquals(aQueue.poll(), Integer.valueOf(2));
+		assertTrue(aQueue.isEmpty());
+
+	}
+
+	/**
+	 * 
+	 * Offers 0 through 19 to the passed queue, <code>aQueue</code>, polling 0
+	 * along the way so that, under the two stack strategy, elements are held
+	 * in both stacks.
+	 * 
+	 */
+	private static void fillBothStacks(QueueStack<Integer> aQueue) {
+
+		for (int i = 0; i < 10; i++) {
+
+			aQueue.offer(i);
+
+		}
+
+		assertEquals(aQueue.poll(), Integer.valueOf(0));
+
+		for (int i = 10; i < 20; i++) {
+
+			aQueue.offer(i);
+
+		}
+
+	}
+
+	@DataProvider(name = STRATEGY_PROVIDER)
+	public Object[][] provideStrategies() {
+
+		return new Object[][] {
+
+			{ new QueueStack<Integer>() },
+			{ new QueueStack<Integer>(QueueStack.Strategy.FLIP) },
+			{ new QueueStack<Integer>(QueueStack.Strategy.TWO_STACK) }
+
+		};
+
+	}
+
 	@DataProvider(name = ELEMENT_PROVIDER)
 	public Object[][] provideElements() {
 
 		return new Object[][] {
 
-			{ createIntegerQueue(10), new QueueStack<Integer>() }
+			{ createIntegerQueue(10), new QueueStack<Integer>() },
+			{ createIntegerQueue(10),
+					new QueueStack<Integer>(QueueStack.Strategy.FLIP) },
+			{ createIntegerQueue(10),
+					new QueueStack<Integer>(QueueStack.Strategy.TWO_STACK) }
 
 		};
 
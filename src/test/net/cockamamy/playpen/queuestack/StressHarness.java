@@ -0,0 +1,505 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static java.lang.String.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * 
+ * Drives a concurrent queue with a configurable number of producer and
+ * consumer threads, verifying its correctness while measuring its latency and
+ * throughput under contention in the same run. Each element is a tag
+ * identifying its producer and its sequence within that producer, from which
+ * the harness verifies that:
+ * 
+ * <ul>
+ * <li>every element offered is polled exactly once -- none are lost and none
+ * are duplicated, and</li>
+ * <li>each consumer observes the elements of any given producer in the order
+ * in which they were offered (per-producer FIFO).</li>
+ * </ul>
+ * 
+ * The latency of each element -- from immediately before its offer to
+ * immediately after its poll -- is recorded in a histogram of power of two
+ * nanosecond buckets.
+ * 
+ */
+final class StressHarness {
+
+	private static final int SEQUENCE_BITS = 40;
+
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	private final int myProducerCount;
+
+	private final int myConsumerCount;
+
+	private final int myElementsPerProducer;
+
+	private final long myTimeoutMillis;
+
+	StressHarness(int aProducerCount, int aConsumerCount,
+			int anElementsPerProducer, long aTimeoutMillis) {
+
+		super();
+
+		if (aProducerCount < 1 || aConsumerCount < 1
+				|| anElementsPerProducer < 1) {
+
+			throw new IllegalArgumentException(
+					"At least one producer, consumer and element is required.");
+
+		}
+
+		this.myProducerCount = aProducerCount;
+		this.myConsumerCount = aConsumerCount;
+		this.myElementsPerProducer = anElementsPerProducer;
+		this.myTimeoutMillis = aTimeoutMillis;
+
+	}
+
+	/**
+	 * 
+	 * Runs the configured producers and consumers against the passed queue,
+	 * <code>aTarget</code>.
+	 * 
+	 */
+	Result run(final Target aTarget) throws InterruptedException {
+
+		final long aTotal = (long) this.myProducerCount
+				* this.myElementsPerProducer;
+		final long[][] theOfferTimes = new long[this.myProducerCount][this.myElementsPerProducer];
+		final Consumer[] theConsumers = new Consumer[this.myConsumerCount];
+		final AtomicLong aPolledCount = new AtomicLong();
+		final CountDownLatch aStartLatch = new CountDownLatch(1);
+		final long aDeadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(this.myTimeoutMillis);
+		final AtomicReference<Throwable> aFailure = new AtomicReference<Throwable>();
+		List<Thread> theThreads = new ArrayList<Thread>();
+
+		for (int i = 0; i < this.myProducerCount; i++) {
+
+			final int aProducer = i;
+			theThreads.add(new Thread(new Runnable() {
+
+				public void run() {
+
+					try {
+
+						aStartLatch.await();
+
+						long[] theTimes = theOfferTimes[aProducer];
+						long aTagBase = (long) aProducer << SEQUENCE_BITS;
+
+						for (int j = 0; j < theTimes.length; j++) {
+
+							theTimes[j] = System.nanoTime();
+
+							while (aTarget.offer(aTagBase | j) == false) {
+
+								if (System.nanoTime() > aDeadline) {
+
+									return;
+
+								}
+
+								Thread.yield();
+
+							}
+
+						}
+
+					} catch (Throwable e) {
+
+						aFailure.compareAndSet(null, e);
+
+					}
+
+				}
+
+			}, "stress-producer-" + i));
+
+		}
+
+		for (int i = 0; i < this.myConsumerCount; i++) {
+
+			final Consumer aConsumer = new Consumer(this.myProducerCount);
+			theConsumers[i] = aConsumer;
+			theThreads.add(new Thread(new Runnable() {
+
+				public void run() {
+
+					try {
+
+						aStartLatch.await();
+
+						while (aPolledCount.get() < aTotal
+								&& System.nanoTime() < aDeadline) {
+
+							long aTag = aTarget.poll();
+
+							if (aTag < 0) {
+
+								Thread.yield();
+								continue;
+
+							}
+
+							long aPollTime = System.nanoTime();
+							int aProducer = (int) (aTag >>> SEQUENCE_BITS);
+							int aSequence = (int) (aTag & SEQUENCE_MASK);
+
+							aConsumer.record(aProducer, aSequence, aPollTime
+									- theOfferTimes[aProducer][aSequence]);
+							aPolledCount.incrementAndGet();
+
+						}
+
+					} catch (Throwable e) {
+
+						aFailure.compareAndSet(null, e);
+
+					}
+
+				}
+
+			}, "stress-consumer-" + i));
+
+		}
+
+		for (Thread aThread : theThreads) {
+
+			aThread.start();
+
+		}
+
+		long aStartTime = System.nanoTime();
+		aStartLatch.countDown();
+
+		for (Thread aThread : theThreads) {
+
+			aThread.join();
+
+		}
+
+		long anElapsed = System.nanoTime() - aStartTime;
+
+		if (aFailure.get() != null) {
+
+			throw new IllegalStateException("A stress thread failed.",
+					aFailure.get());
+
+		}
+
+		return new Result(this.myProducerCount, this.myElementsPerProducer,
+				theConsumers, anElapsed);
+
+	}
+
+	/**
+	 * 
+	 * The queue under test. Tags are non-negative.
+	 * 
+	 */
+	interface Target {
+
+		/**
+		 * 
+		 * @return <code>false</code> if the queue is full
+		 * 
+		 */
+		boolean offer(long aTag);
+
+		/**
+		 * 
+		 * @return The tag at the head of the queue, or <code>-1</code> if the
+		 *         queue is empty
+		 * 
+		 */
+		long poll();
+
+	}
+
+	/**
+	 * 
+	 * The observations of a single consumer thread.
+	 * 
+	 */
+	private static final class Consumer {
+
+		private final int[] myLastSequences;
+
+		private final List<long[]> myTags;
+
+		private long[] myCurrentTags;
+
+		private int myCurrentCount;
+
+		private long myReorderedCount;
+
+		private final long[] myLatencyHistogram;
+
+		private Consumer(int aProducerCount) {
+
+			super();
+
+			this.myLastSequences = new int[aProducerCount];
+			Arrays.fill(this.myLastSequences, -1);
+			this.myTags = new ArrayList<long[]>();
+			this.myCurrentTags = new long[4096];
+			this.myTags.add(this.myCurrentTags);
+			this.myLatencyHistogram = new long[64];
+
+		}
+
+		private void record(int aProducer, int aSequence, long aLatency) {
+
+			if (aSequence <= this.myLastSequences[aProducer]) {
+
+				this.myReorderedCount++;
+
+			}
+			this.myLastSequences[aProducer] = aSequence;
+
+			if (this.myCurrentCount == this.myCurrentTags.length) {
+
+				this.myCurrentTags = new long[this.myCurrentTags.length];
+				this.myTags.add(this.myCurrentTags);
+				this.myCurrentCount = 0;
+
+			}
+			this.myCurrentTags[this.myCurrentCount++] = ((long) aProducer << SEQUENCE_BITS)
+					| aSequence;
+
+			this.myLatencyHistogram[64 - Long.numberOfLeadingZeros(Math.max(
+					1, aLatency))]++;
+
+		}
+
+	}
+
+	/**
+	 * 
+	 * The correctness and performance results of a run.
+	 * 
+	 */
+	static final class Result {
+
+		private final long myOfferedCount;
+
+		private long myPolledCount;
+
+		private long myLostCount;
+
+		private long myDuplicatedCount;
+
+		private long myReorderedCount;
+
+		private final long[] myLatencyHistogram;
+
+		private final long myElapsed;
+
+		private Result(int aProducerCount, int anElementsPerProducer,
+				Consumer[] theConsumers, long anElapsed) {
+
+			super();
+
+			this.myOfferedCount = (long) aProducerCount * anElementsPerProducer;
+			this.myLatencyHistogram = new long[64];
+			this.myElapsed = anElapsed;
+
+			int[][] theDeliveries = new int[aProducerCount][anElementsPerProducer];
+
+			for (Consumer aConsumer : theConsumers) {
+
+				this.myReorderedCount += aConsumer.myReorderedCount;
+
+				for (int i = 0; i < this.myLatencyHistogram.length; i++) {
+
+					this.myLatencyHistogram[i] += aConsumer.myLatencyHistogram[i];
+
+				}
+
+				for (int i = 0; i < aConsumer.myTags.size(); i++) {
+
+					long[] theTags = aConsumer.myTags.get(i);
+					int aCount = (i == aConsumer.myTags.size() - 1) ? aConsumer.myCurrentCount
+							: theTags.length;
+
+					for (int j = 0; j < aCount; j++) {
+
+						theDeliveries[(int) (theTags[j] >>> SEQUENCE_BITS)][(int) (theTags[j] & SEQUENCE_MASK)]++;
+						this.myPolledCount++;
+
+					}
+
+				}
+
+			}
+
+			for (int[] theProducerDeliveries : theDeliveries) {
+
+				for (int aDeliveries : theProducerDeliveries) {
+
+					if (aDeliveries == 0) {
+
+						this.myLostCount++;
+
+					} else if (aDeliveries > 1) {
+
+						this.myDuplicatedCount += aDeliveries - 1;
+
+					}
+
+				}
+
+			}
+
+		}
+
+		long getOfferedCount() {
+
+			return this.myOfferedCount;
+
+		}
+
+		long getPolledCount() {
+
+			return this.myPolledCount;
+
+		}
+
+		/**
+		 * 
+		 * @return The number of elements offered but never polled
+		 * 
+		 */
+		long getLostCount() {
+
+			return this.myLostCount;
+
+		}
+
+		/**
+		 * 
+		 * @return The number of surplus deliveries of elements polled more
+		 *         than once
+		 * 
+		 */
+		long getDuplicatedCount() {
+
+			return this.myDuplicatedCount;
+
+		}
+
+		/**
+		 * 
+		 * @return The number of elements a consumer observed before an
+		 *         element offered earlier by the same producer
+		 * 
+		 */
+		long getReorderedCount() {
+
+			return this.myReorderedCount;
+
+		}
+
+		/**
+		 * 
+		 * @return <code>true</code> if every element was delivered exactly
+		 *         once in per-producer FIFO order
+		 * 
+		 */
+		boolean isCorrect() {
+
+			return this.myLostCount == 0 && this.myDuplicatedCount == 0
+					&& this.myReorderedCount == 0;
+
+		}
+
+		/**
+		 * 
+		 * @return The number of elements polled per second
+		 * 
+		 */
+		double getThroughput() {
+
+			return this.myPolledCount * 1e9 / this.myElapsed;
+
+		}
+
+		/**
+		 * 
+		 * @return The upper bound, in nanoseconds, of the histogram bucket
+		 *         containing the passed percentile, <code>aPercentile</code>,
+		 *         of latencies
+		 * 
+		 */
+		long getLatencyPercentile(double aPercentile) {
+
+			long aThreshold = (long) Math.ceil(this.myPolledCount * aPercentile
+					/ 100);
+			long aCount = 0;
+
+			for (int i = 0; i < this.myLatencyHistogram.length; i++) {
+
+				aCount += this.myLatencyHistogram[i];
+
+				if (aCount >= aThreshold) {
+
+					return i == 63 ? Long.MAX_VALUE : (1L << i);
+
+				}
+
+			}
+
+			return Long.MAX_VALUE;
+
+		}
+
+		@Override
+		public String toString() {
+
+			return format(
+					"offered=%1$s polled=%2$s lost=%3$s duplicated=%4$s reordered=%5$s throughput=%6$.0f/s latency(ns) p50<=%7$s p99<=%8$s p99.9<=%9$s",
+					this.myOfferedCount, this.myPolledCount, this.myLostCount,
+					this.myDuplicatedCount, this.myReorderedCount,
+					this.getThroughput(), this.getLatencyPercentile(50),
+					this.getLatencyPercentile(99),
+					this.getLatencyPercentile(99.9));
+
+		}
+
+	}
+
+}
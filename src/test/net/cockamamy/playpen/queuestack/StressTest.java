@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2010, John Burwell
+ * 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are 
+ * permitted provided that the following conditions are met:
+ * 
+ *    * Redistributions of source code must retain the above copyright notice, this list of 
+ *      conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above copyright notice, this list of 
+ *      conditions and the following disclaimer in the documentation and/or other materials 
+ *      provided with the distribution.
+ *    * Neither the name of the John Burwell nor the names of its contributors may be used to 
+ *      endorse or promote products derived from this software without specific prior written 
+ *      permission.
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR 
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY 
+ * AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ * 
+ */
+package net.cockamamy.playpen.queuestack;
+
+import static org.testng.Assert.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+
+import net.cockamamy.playpen.queuestack.QueueStack.*;
+
+import org.testng.*;
+import org.testng.annotations.*;
+
+@Test(groups = "stress")
+public class StressTest {
+
+	private static final String STRATEGY_PROVIDER = "strategies";
+
+	private static final String THREAD_PROVIDER = "threads";
+
+	/**
+	 * The thread counts at which each queue is run -- as both the producer and
+	 * consumer count for multi-consumer queues
+	 */
+	private static final int[] THREAD_COUNTS = new int[] { 1, 2, 4, 8 };
+
+	/**
+	 * The number of elements offered per run, divided among the producers so
+	 * that the runs at each thread count are comparable
+	 */
+	private static final int ELEMENT_COUNT = 400000;
+
+	/**
+	 * The backlog beyond which offers to a locked queue are refused. Under
+	 * the flip strategy every alternation of offer and poll flips the whole
+	 * backlog, so an unbounded backlog (e.g. a single consumer falling behind
+	 * a single producer) makes a run quadratic in its length.
+	 */
+	private static final int MAX_BACKLOG = 1024;
+
+	private static final long TIMEOUT_MILLIS = 60000;
+
+	@Test(dataProvider = STRATEGY_PROVIDER)
+	public void testLockedQueueStack(Strategy aStrategy, int aThreadCount)
+			throws InterruptedException {
+
+		final QueueStack<Long> aQueue = aStrategy != null ? new QueueStack<Long>(
+				aStrategy) : new QueueStack<Long>();
+
+		// A null strategy is an adaptive queue
+		String aLabel = aStrategy != null ? aStrategy.name() : "ADAPTIVE";
+
+		verify("QueueStack(" + aLabel + ")", aThreadCount, aThreadCount,
+				new StressHarness.Target() {
+
+					public synchronized boolean offer(long aTag) {
+
+						return aQueue.size() < MAX_BACKLOG
+								&& aQueue.offer(aTag);
+
+					}
+
+					public synchronized long poll() {
+
+						Long aTag = aQueue.poll();
+						return aTag != null ? aTag : -1;
+
+					}
+
+				});
+
+	}
+
+	@Test(dataProvider = THREAD_PROVIDER)
+	public void testAsyncQueueStack(int aThreadCount)
+			throws InterruptedException {
+
+		final AsyncQueueStack<Long> aQueue = new AsyncQueueStack<Long>();
+
+		verify("AsyncQueueStack", aThreadCount, aThreadCount,
+				new StressHarness.Target() {
+
+					public boolean offer(long aTag) {
+
+						return aQueue.offer(aTag);
+
+					}
+
+					public long poll() {
+
+						Long aTag = aQueue.poll();
+						return aTag != null ? aTag : -1;
+
+					}
+
+				});
+
+	}
+
+	@Test(dataProvider = THREAD_PROVIDER)
+	public void testMappedQueueStack(int aThreadCount) throws IOException,
+			InterruptedException {
+
+		Path aPath = Files.createTempFile("queue-stack", ".dat");
+
+		try {
+
+			final MappedQueueStack aQueue = MappedQueueStack.create(aPath,
+					1024, 8);
+
+			try {
+
+				// MappedQueueStack supports a single consumer
+				verify("MappedQueueStack", aThreadCount, 1,
+						new StressHarness.Target() {
+
+							public boolean offer(long aTag) {
+
+								return aQueue.offer(ByteBuffer.allocate(8)
+										.putLong(aTag).array());
+
+							}
+
+							public long poll() {
+
+								byte[] anElement = aQueue.poll();
+								return anElement != null ? ByteBuffer.wrap(
+										anElement).getLong() : -1;
+
+							}
+
+						});
+
+			} finally {
+
+				aQueue.close();
+
+			}
+
+		} finally {
+
+			Files.deleteIfExists(aPath);
+
+		}
+
+	}
+
+	@Test
+	public void testDetectsViolations() throws InterruptedException {
+
+		// A faulty queue that duplicates elements and polls them LIFO
+		final List<Long> theTags = Collections
+				.synchronizedList(new ArrayList<Long>());
+
+		StressHarness.Result aResult = new StressHarness(2, 1, 1000,
+				TIMEOUT_MILLIS).run(new StressHarness.Target() {
+
+			public boolean offer(long aTag) {
+
+				theTags.add(aTag);
+
+				// Duplicates every tenth element
+				if (theTags.size() % 10 == 0) {
+
+					theTags.add(aTag);
+
+				}
+
+				return true;
+
+			}
+
+			public long poll() {
+
+				synchronized (theTags) {
+
+					if (theTags.isEmpty() == true) {
+
+						return -1;
+
+					}
+
+					// Polls the newest element rather than the oldest
+					long aTag = theTags.get(theTags.size() - 1);
+					theTags.remove(theTags.size() - 1);
+					return aTag;
+
+				}
+
+			}
+
+		});
+
+		assertFalse(aResult.isCorrect(), aResult.toString());
+
+	}
+
+	private static void verify(String aName, int aProducerCount,
+			int aConsumerCount, StressHarness.Target aTarget)
+			throws InterruptedException {
+
+		StressHarness.Result aResult = new StressHarness(aProducerCount,
+				aConsumerCount, ELEMENT_COUNT / aProducerCount, TIMEOUT_MILLIS)
+				.run(aTarget);
+
+		String aSummary = aName + " " + aProducerCount + "x"
+				+ aConsumerCount + ": " + aResult;
+		Reporter.log(aSummary);
+		System.out.println(aSummary);
+
+		assertEquals(aResult.getPolledCount(), aResult.getOfferedCount(),
+				aSummary);
+		assertTrue(aResult.isCorrect(), aSummary);
+
+	}
+
+	@DataProvider(name = STRATEGY_PROVIDER)
+	public Object[][] provideStrategies() {
+
+		Strategy[] theStrategies = new Strategy[] { Strategy.FLIP,
+				Strategy.TWO_STACK, null };
+		Object[][] theData = new Object[theStrategies.length
+				* THREAD_COUNTS.length][];
+
+		for (int i = 0; i < theStrategies.length; i++) {
+
+			for (int j = 0; j < THREAD_COUNTS.length; j++) {
+
+				theData[i * THREAD_COUNTS.length + j] = new Object[] {
+						theStrategies[i], THREAD_COUNTS[j] };
+
+			}
+
+		}
+
+		return theData;
+
+	}
+
+	@DataProvider(name = THREAD_PROVIDER)
+	public Object[][] provideThreadCounts() {
+
+		Object[][] theData = new Object[THREAD_COUNTS.length][];
+
+		for (int i = 0; i < THREAD_COUNTS.length; i++) {
+
+			theData[i] = new Object[] { THREAD_COUNTS[i] };
+
+		}
+
+		return theData;
+
+	}
+
+}
@@ -29,6 +29,7 @@
 package net.cockamamy.playpen.queuestack;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 final class TestUtilities {
 
@@ -54,4 +55,27 @@ final class TestUtilities {
 
 	}
 
+	/**
+	 * 
+	 * A ticker whose time only moves when it is advanced.
+	 * 
+	 */
+	static final class ManualTicker implements Ticker {
+
+		private long myTime;
+
+		public long read() {
+
+			return this.myTime;
+
+		}
+
+		void advance(long aDuration, TimeUnit aUnit) {
+
+			this.myTime += aUnit.toNanos(aDuration);
+
+		}
+
+	}
+
 }